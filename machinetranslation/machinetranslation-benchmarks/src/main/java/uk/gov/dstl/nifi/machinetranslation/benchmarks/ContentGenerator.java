@@ -0,0 +1,77 @@
+package uk.gov.dstl.nifi.machinetranslation.benchmarks;
+
+/*-
+ * #%L
+ * Machine Translation Benchmarks
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/** Generates repeatable text content for benchmarks, so that results are comparable between runs */
+public class ContentGenerator {
+  private static final String[] WORDS = {
+    "le", "la", "les", "de", "et", "un", "une", "est", "dans", "pour", "monde", "bonjour", "maison",
+    "rapport", "gouvernement", "information", "traduction", "document", "aujourd'hui", "demain"
+  };
+
+  private ContentGenerator() {
+    // Utility class
+  }
+
+  /**
+   * Generates text of approximately the given size in bytes, made up of sentences and paragraphs
+   * of common words. The same seed always produces the same text.
+   */
+  public static String text(int size, long seed) {
+    Random random = new Random(seed);
+    StringBuilder sb = new StringBuilder(size + 32);
+
+    int wordsInSentence = 0;
+    int sentencesInParagraph = 0;
+    while (sb.length() < size) {
+      String word = WORDS[random.nextInt(WORDS.length)];
+      if (wordsInSentence == 0) {
+        sb.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+      } else {
+        sb.append(' ').append(word);
+      }
+      wordsInSentence++;
+
+      if (wordsInSentence > 5 && random.nextInt(10) == 0) {
+        sb.append('.');
+        wordsInSentence = 0;
+        sentencesInParagraph++;
+
+        if (sentencesInParagraph > 3 && random.nextInt(5) == 0) {
+          sb.append("\n\n");
+          sentencesInParagraph = 0;
+        } else {
+          sb.append(' ');
+        }
+      }
+    }
+
+    sb.setLength(size);
+    return sb.toString();
+  }
+
+  /** Generates text as UTF-8 bytes, of approximately the given size */
+  public static byte[] bytes(int size, long seed) {
+    return text(size, seed).getBytes(StandardCharsets.UTF_8);
+  }
+}
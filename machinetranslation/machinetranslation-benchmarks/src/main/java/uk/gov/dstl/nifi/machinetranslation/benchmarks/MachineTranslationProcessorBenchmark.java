@@ -0,0 +1,148 @@
+package uk.gov.dstl.nifi.machinetranslation.benchmarks;
+
+/*-
+ * #%L
+ * Machine Translation Benchmarks
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.dstl.nifi.machinetranslation.processors.MachineTranslationProcessor;
+
+/**
+ * Benchmarks MachineTranslationProcessor against {@link StubConnector}, across content sizes and
+ * concurrency levels. Each benchmark thread has its own TestRunner, so the number of JMH threads
+ * ({@code -t}) simulates Concurrent Tasks, while {@code batchConcurrency} controls concurrency
+ * within the processor.
+ *
+ * <p>{@code throughput} reports batches/sec and, through the auxiliary counter, FlowFiles/sec.
+ * {@code latency} reports the time to process a batch, including p50 and p99. Run with {@code -prof
+ * gc} to measure the allocation rate.
+ */
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"-Xmx4g", "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn"})
+@State(Scope.Thread)
+public class MachineTranslationProcessorBenchmark {
+  private static final long SEED = 42L;
+
+  /** Content size in bytes, from 1 KB to 100 MB */
+  @Param({"1024", "102400", "1048576", "10485760", "104857600"})
+  public int contentSize;
+
+  @Param({"1", "10"})
+  public int batchSize;
+
+  @Param({"1", "4"})
+  public int batchConcurrency;
+
+  /** Segment size in characters, or 0 to translate content in full */
+  @Param({"0", "4096"})
+  public int segmentSize;
+
+  /** Simulated latency of each call to the connector */
+  @Param({"0"})
+  public long latencyMicros;
+
+  private TestRunner testRunner;
+  private byte[] content;
+
+  /** Counts FlowFiles, so that JMH reports FlowFiles/sec as well as batches/sec */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class FlowFiles {
+    public long flowFiles;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      flowFiles = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setup() {
+    content = ContentGenerator.bytes(contentSize, SEED);
+
+    testRunner = TestRunners.newTestRunner(MachineTranslationProcessor.class);
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE, "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE, "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR, StubConnector.class.getName());
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR_CONFIG,
+        "{\"" + StubConnector.CONFIG_LATENCY_MICROS + "\": " + latencyMicros + "}");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_SIZE, String.valueOf(batchSize));
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_BATCH_CONCURRENCY, String.valueOf(batchConcurrency));
+    if (segmentSize > 0) {
+      testRunner.setProperty(
+          MachineTranslationProcessor.PROP_SEGMENT_SIZE, String.valueOf(segmentSize));
+    }
+
+    // Schedule the processor once, so that each invocation only measures triggering it
+    testRunner.run(1, false, true);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    testRunner.run(1, true, false);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public void throughput(FlowFiles counter) {
+    translateBatch();
+    counter.flowFiles += batchSize;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void latency() {
+    translateBatch();
+  }
+
+  private void translateBatch() {
+    for (int i = 0; i < batchSize; i++) {
+      testRunner.enqueue(content);
+    }
+
+    testRunner.run(1, false, false);
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS, batchSize);
+    testRunner.clearTransferState();
+  }
+}
@@ -0,0 +1,92 @@
+package uk.gov.dstl.nifi.machinetranslation.benchmarks;
+
+/*-
+ * #%L
+ * Machine Translation Benchmarks
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import uk.gov.dstl.machinetranslation.connector.api.EngineDetails;
+import uk.gov.dstl.machinetranslation.connector.api.LanguageDetection;
+import uk.gov.dstl.machinetranslation.connector.api.LanguagePair;
+import uk.gov.dstl.machinetranslation.connector.api.MTConnectorApi;
+import uk.gov.dstl.machinetranslation.connector.api.Translation;
+import uk.gov.dstl.machinetranslation.connector.api.exceptions.ConnectorException;
+import uk.gov.dstl.machinetranslation.connector.api.utils.ConnectorUtils;
+
+/**
+ * In-process connector which returns the content unchanged, so that benchmarks measure the
+ * processor rather than a translation engine. A fixed latency can be added to each call with the
+ * {@code latencyMicros} configuration option to simulate a remote engine.
+ */
+public class StubConnector implements MTConnectorApi {
+  public static final String CONFIG_LATENCY_MICROS = "latencyMicros";
+
+  private long latencyMicros = 0;
+
+  @Override
+  public void configure(Map<String, Object> config) {
+    Object latency = config.get(CONFIG_LATENCY_MICROS);
+    if (latency instanceof Number) {
+      latencyMicros = ((Number) latency).longValue();
+    }
+  }
+
+  @Override
+  public Collection<LanguagePair> supportedLanguages() {
+    return List.of(new LanguagePair("fr", "en"), new LanguagePair("de", "en"));
+  }
+
+  @Override
+  public List<LanguageDetection> identifyLanguage(String content) throws ConnectorException {
+    simulateLatency();
+    return List.of(new LanguageDetection("fr", 1.0));
+  }
+
+  @Override
+  public Translation translate(String sourceLanguage, String targetLanguage, String content)
+      throws ConnectorException {
+    simulateLatency();
+
+    if (ConnectorUtils.LANGUAGE_AUTO.equals(sourceLanguage)) {
+      return new Translation("fr", content);
+    }
+
+    return new Translation(sourceLanguage, content);
+  }
+
+  @Override
+  public EngineDetails queryEngine() {
+    return new EngineDetails("Stub Connector", ConnectorUtils.VERSION_UNKNOWN);
+  }
+
+  private void simulateLatency() throws ConnectorException {
+    if (latencyMicros <= 0) {
+      return;
+    }
+
+    try {
+      TimeUnit.MICROSECONDS.sleep(latencyMicros);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ConnectorException("Interrupted");
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import uk.gov.dstl.machinetranslation.connector.api.MTConnectorApi;
+import uk.gov.dstl.machinetranslation.connector.api.exceptions.ConnectorException;
+
+/**
+ * Fixed pool of configured connectors. Each connector is only used by one thread at a time, so
+ * connectors don't need to be thread-safe. If all connectors are in use, callers wait for one to
+ * be released.
+ */
+public class ConnectorPool {
+  private final BlockingQueue<MTConnectorApi> connectors;
+
+  /**
+   * Create a new pool
+   *
+   * @param connectors The configured connectors to hold in the pool
+   */
+  public ConnectorPool(Collection<MTConnectorApi> connectors) {
+    if (connectors.isEmpty()) {
+      throw new IllegalArgumentException("Pool must contain at least one connector");
+    }
+
+    this.connectors = new ArrayBlockingQueue<>(connectors.size(), false, connectors);
+  }
+
+  /**
+   * Takes a connector from the pool, waiting for one to become available if necessary. The
+   * connector must be returned to the pool with {@link #release(MTConnectorApi)} when finished.
+   */
+  public MTConnectorApi borrow() throws ConnectorException {
+    try {
+      return connectors.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ConnectorException("Interrupted waiting for a connector");
+    }
+  }
+
+  /** Returns a connector to the pool */
+  public void release(MTConnectorApi connector) {
+    connectors.add(connector);
+  }
+
+  /** Returns the number of connectors currently available */
+  public int available() {
+    return connectors.size();
+  }
+}
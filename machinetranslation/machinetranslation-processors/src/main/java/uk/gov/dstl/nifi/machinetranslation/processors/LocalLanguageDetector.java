@@ -0,0 +1,111 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Fast language detector which doesn't call out to a connector. Words in the content are compared
+ * against lists of the most common words in each language, and the language with the most matches
+ * is returned. This is only accurate for longer content in the languages it knows about, so is
+ * intended for quickly identifying obvious cases before falling back to a connector.
+ */
+public class LocalLanguageDetector {
+  private static final String PROFILES = "common-words.properties";
+  private static final Pattern NON_LETTERS = Pattern.compile("\\P{L}+");
+
+  /** The minimum number of matching words required before a language is returned */
+  public static final int MIN_MATCHES = 3;
+
+  private final Map<String, Set<String>> commonWords = new HashMap<>();
+
+  /** Create a new detector, using the common words bundled with the processor */
+  public LocalLanguageDetector() {
+    Properties properties = new Properties();
+    try (InputStream is = LocalLanguageDetector.class.getResourceAsStream(PROFILES)) {
+      properties.load(new InputStreamReader(is, StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to load language profiles", e);
+    }
+
+    for (String language : properties.stringPropertyNames()) {
+      commonWords.put(
+          language, new HashSet<>(Arrays.asList(properties.getProperty(language).split(" "))));
+    }
+  }
+
+  /** Returns the languages this detector knows about */
+  public Set<String> getLanguages() {
+    return commonWords.keySet();
+  }
+
+  /**
+   * Identifies the language of the content. The confidence is the proportion of matches for the
+   * detected language, out of the matches for it and the next most likely language.
+   *
+   * @return The detected language, or null if there weren't enough matches to tell
+   */
+  public DetectedLanguage detect(String content) {
+    Map<String, Integer> matches = new HashMap<>();
+    for (String word : NON_LETTERS.split(content.toLowerCase(Locale.ROOT))) {
+      if (word.isEmpty()) {
+        continue;
+      }
+
+      for (Map.Entry<String, Set<String>> language : commonWords.entrySet()) {
+        if (language.getValue().contains(word)) {
+          matches.merge(language.getKey(), 1, Integer::sum);
+        }
+      }
+    }
+
+    String best = null;
+    int bestCount = 0;
+    int secondCount = 0;
+    for (Map.Entry<String, Integer> match : matches.entrySet()) {
+      if (match.getValue() > bestCount) {
+        secondCount = bestCount;
+        best = match.getKey();
+        bestCount = match.getValue();
+      } else if (match.getValue() > secondCount) {
+        secondCount = match.getValue();
+      }
+    }
+
+    if (bestCount < MIN_MATCHES) {
+      return null;
+    }
+
+    return new DetectedLanguage(best, (double) bestCount / (bestCount + secondCount));
+  }
+}
@@ -22,16 +22,53 @@ package uk.gov.dstl.nifi.machinetranslation.processors;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.commons.io.ByteOrderMark;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BOMInputStream;
 import org.apache.nifi.annotation.behavior.RequiresInstanceClassLoading;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.distributed.cache.client.DistributedMapCacheClient;
+import org.apache.nifi.distributed.cache.client.Serializer;
 import org.apache.nifi.expression.ExpressionLanguageScope;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.*;
@@ -39,6 +76,7 @@ import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.gov.dstl.machinetranslation.connector.api.LanguageDetection;
 import uk.gov.dstl.machinetranslation.connector.api.LanguagePair;
 import uk.gov.dstl.machinetranslation.connector.api.MTConnectorApi;
 import uk.gov.dstl.machinetranslation.connector.api.Translation;
@@ -58,6 +96,20 @@ public class MachineTranslationProcessor extends AbstractProcessor {
   private static final TypeReference<Map<String, Object>> MAP =
       new TypeReference<Map<String, Object>>() {};
 
+  private static final Serializer<String> KEY_SERIALIZER =
+      (key, output) -> output.write(key.getBytes(StandardCharsets.UTF_8));
+  private static final TranslationSerializer TRANSLATION_SERIALIZER = new TranslationSerializer();
+  private static final int DISTRIBUTED_CACHE_QUEUE_SIZE = 1000;
+  private static final int DEFAULT_SEGMENT_SIZE = 5000;
+  // UTF-32LE is listed before UTF-16LE, as its byte order mark starts with that of UTF-16LE
+  private static final ByteOrderMark[] BYTE_ORDER_MARKS = {
+    ByteOrderMark.UTF_8,
+    ByteOrderMark.UTF_32BE,
+    ByteOrderMark.UTF_32LE,
+    ByteOrderMark.UTF_16BE,
+    ByteOrderMark.UTF_16LE
+  };
+
   public static final PropertyDescriptor PROP_SOURCE_LANGUAGE =
       new PropertyDescriptor.Builder()
           .name("sourceLanguage")
@@ -132,6 +184,305 @@ public class MachineTranslationProcessor extends AbstractProcessor {
               }))
           .build();
 
+  public static final PropertyDescriptor PROP_BATCH_SIZE =
+      new PropertyDescriptor.Builder()
+          .name("batchSize")
+          .displayName("Batch Size")
+          .description(
+              "The maximum number of FlowFiles to take from the queue each time the processor is triggered. All FlowFiles in a batch are committed together. The connector API has no batched translation call, so each FlowFile is still sent to the connector separately, up to Batch Concurrency at once.")
+          .required(true)
+          .defaultValue("1")
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+  public static final PropertyDescriptor PROP_BATCH_CONCURRENCY =
+      new PropertyDescriptor.Builder()
+          .name("batchConcurrency")
+          .displayName("Batch Concurrency")
+          .description(
+              "The number of translations each concurrent task can perform at once, of either FlowFiles within a batch or segments within a FlowFile. Translations run on a pool of threads and connectors shared by all tasks, sized Concurrent Tasks multiplied by Batch Concurrency, so all tasks together never perform more than that many at once.")
+          .required(true)
+          .defaultValue("1")
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROP_CONNECTOR_POOL_SIZE =
+      new PropertyDescriptor.Builder()
+          .name("connectorPoolSize")
+          .displayName("Connector Pool Size")
+          .description(
+              "The number of Connector instances to create and configure when the processor is scheduled. Each instance is only used for one translation at a time, so Connectors don't need to be thread-safe. If not set, one instance is created for each concurrent translation (Concurrent Tasks multiplied by Batch Concurrency).")
+          .required(false)
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROP_SUPPORTED_LANGUAGES_REFRESH =
+      new PropertyDescriptor.Builder()
+          .name("supportedLanguagesRefresh")
+          .displayName("Supported Languages Refresh Interval")
+          .description(
+              "How often to refresh the language pairs supported by the Connector, which are used to route unsupported Flow Files before they are sent for translation. Set to 0 to only retrieve them when the processor is scheduled.")
+          .required(true)
+          .defaultValue("1 hour")
+          .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROP_SEGMENT_SIZE =
+      new PropertyDescriptor.Builder()
+          .name("segmentSize")
+          .displayName("Segment Size")
+          .description(
+              "If set, all content is split into segments of at most this many characters, preferably between paragraphs or sentences, and each segment is translated separately. The translation is written as segments complete, so content is never held in memory in full. If not set, only content larger than the Segment Threshold is segmented, into segments of "
+                  + DEFAULT_SEGMENT_SIZE
+                  + " characters. Segmented content is not cached or coalesced.")
+          .required(false)
+          .addValidator(StandardValidators.createLongValidator(2, Integer.MAX_VALUE, true))
+          .build();
+  public static final PropertyDescriptor PROP_SEGMENT_THRESHOLD =
+      new PropertyDescriptor.Builder()
+          .name("segmentThreshold")
+          .displayName("Segment Threshold")
+          .description(
+              "Content larger than this is translated in segments even if Segment Size isn't set, so that large FlowFiles are streamed rather than held in memory. Smaller content is read into memory in full, along with its translation, so that it can be cached and coalesced.")
+          .required(true)
+          .defaultValue("1 MB")
+          .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROP_INPUT_CHARSET =
+      new PropertyDescriptor.Builder()
+          .name("inputCharacterSet")
+          .displayName("Input Character Set")
+          .description(
+              "The character set of the content, for example ${mime.charset} if it has been identified by an earlier processor. The content is decoded as it is read, so it doesn't need converting to UTF-8 first.")
+          .required(true)
+          .defaultValue(StandardCharsets.UTF_8.name())
+          .addValidator(StandardValidators.CHARACTER_SET_VALIDATOR)
+          .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+          .build();
+  public static final PropertyDescriptor PROP_DETECT_BOM =
+      new PropertyDescriptor.Builder()
+          .name("detectByteOrderMark")
+          .displayName("Detect Byte Order Mark")
+          .description(
+              "If true, a UTF-8, UTF-16 or UTF-32 byte order mark at the start of the content takes precedence over the Input Character Set, and isn't included in the translation")
+          .required(true)
+          .allowableValues("true", "false")
+          .defaultValue("true")
+          .build();
+  public static final PropertyDescriptor PROP_OUTPUT_CHARSET =
+      new PropertyDescriptor.Builder()
+          .name("outputCharacterSet")
+          .displayName("Output Character Set")
+          .description(
+              "The character set to write the translation in. Content which isn't translated, such as content routed to skipped or unsupported, is left in its original character set.")
+          .required(true)
+          .defaultValue(StandardCharsets.UTF_8.name())
+          .addValidator(StandardValidators.CHARACTER_SET_VALIDATOR)
+          .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+          .build();
+
+  public static final PropertyDescriptor PROP_COALESCE =
+      new PropertyDescriptor.Builder()
+          .name("coalesceTranslations")
+          .displayName("Coalesce Translations")
+          .description(
+              "If true, content which is already being translated between the same languages, by this or another concurrent task, isn't sent to the Connector again. Instead, the FlowFile waits for and shares the translation in progress. This requires each FlowFile's content to be hashed, so is disabled by default. Content which is split into segments, because Segment Size is set, is never coalesced.")
+          .required(true)
+          .allowableValues("true", "false")
+          .defaultValue("false")
+          .build();
+
+  public static final PropertyDescriptor PROP_MAX_RETRIES =
+      new PropertyDescriptor.Builder()
+          .name("maxRetries")
+          .displayName("Max Retries")
+          .description(
+              "The number of times a translation which fails with a retryable error, such as a timeout or rate limit, is retried before the FlowFile is penalized and routed to retry. Set to 0 to route to retry without retrying.")
+          .required(true)
+          .defaultValue("3")
+          .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+          .build();
+  public static final PropertyDescriptor PROP_RETRY_INITIAL_DELAY =
+      new PropertyDescriptor.Builder()
+          .name("retryInitialDelay")
+          .displayName("Retry Initial Delay")
+          .description(
+              "How long to wait before the first retry. The delay doubles with each retry, up to Retry Max Delay, and is randomly reduced by up to half so that retries are spread out.")
+          .required(true)
+          .defaultValue("500 millis")
+          .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+          .build();
+  public static final PropertyDescriptor PROP_RETRY_MAX_DELAY =
+      new PropertyDescriptor.Builder()
+          .name("retryMaxDelay")
+          .displayName("Retry Max Delay")
+          .description("The maximum time to wait before any retry")
+          .required(true)
+          .defaultValue("10 secs")
+          .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+          .build();
+  public static final PropertyDescriptor PROP_RETRY_TIME_LIMIT =
+      new PropertyDescriptor.Builder()
+          .name("retryTimeLimit")
+          .displayName("Retry Time Limit")
+          .description(
+              "The maximum total time to wait between retries of a translation or language detection. Retries wait on the NiFi thread which made the call, so once the next wait would exceed this limit the FlowFile is penalized and routed to retry instead. Keep this below the processor's Penalty Duration.")
+          .required(true)
+          .defaultValue("20 secs")
+          .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+          .build();
+  public static final PropertyDescriptor PROP_RETRYABLE_ERRORS =
+      new PropertyDescriptor.Builder()
+          .name("retryableErrors")
+          .displayName("Retryable Error Pattern")
+          .description(
+              "Connector errors whose message, or the message of any of their causes, contains a match for this regular expression are retried. Network timeouts and connection failures are always retried.")
+          .required(false)
+          .defaultValue(
+              "(?i)timed? ?out|too many requests|rate limit|unavailable|connection (refused|reset)|\\b(429|502|503|504)\\b")
+          .addValidator(StandardValidators.REGULAR_EXPRESSION_VALIDATOR)
+          .build();
+  public static final PropertyDescriptor PROP_RATE_LIMIT =
+      new PropertyDescriptor.Builder()
+          .name("connectorRateLimit")
+          .displayName("Connector Rate Limit")
+          .description(
+              "If set, the maximum number of translations and language detections per second sent to the Connector, shared by all concurrent tasks. Short bursts of up to a second's worth of calls are allowed.")
+          .required(false)
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROP_CACHE_MAX_ENTRIES =
+      new PropertyDescriptor.Builder()
+          .name("cacheMaxEntries")
+          .displayName("Cache Max Entries")
+          .description(
+              "The maximum number of translations to cache, so that repeated content isn't sent to the Connector again. Set to 0 to disable the cache.")
+          .required(true)
+          .defaultValue("0")
+          .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+          .build();
+  public static final PropertyDescriptor PROP_CACHE_MAX_SIZE =
+      new PropertyDescriptor.Builder()
+          .name("cacheMaxSize")
+          .displayName("Cache Max Size")
+          .description("The maximum approximate amount of memory used by cached translations")
+          .required(true)
+          .defaultValue("10 MB")
+          .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+          .build();
+  public static final PropertyDescriptor PROP_CACHE_TTL =
+      new PropertyDescriptor.Builder()
+          .name("cacheTtl")
+          .displayName("Cache TTL")
+          .description("How long a translation is cached for")
+          .required(true)
+          .defaultValue("1 hour")
+          .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROP_DISTRIBUTED_CACHE =
+      new PropertyDescriptor.Builder()
+          .name("distributedCache")
+          .displayName("Distributed Cache Service")
+          .description(
+              "A Distributed Map Cache Client used to share translations between processors and nodes")
+          .required(false)
+          .identifiesControllerService(DistributedMapCacheClient.class)
+          .build();
+  public static final PropertyDescriptor PROP_DISTRIBUTED_CACHE_TIMEOUT =
+      new PropertyDescriptor.Builder()
+          .name("distributedCacheTimeout")
+          .displayName("Distributed Cache Timeout")
+          .description(
+              "The maximum time to wait for the Distributed Cache Service to return translations for a batch, after which the content is translated instead")
+          .required(true)
+          .defaultValue("100 millis")
+          .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+          .build();
+
+  public static final AllowableValue DETECTION_NONE =
+      new AllowableValue("none", "None", "Languages are not identified before translation");
+  public static final AllowableValue DETECTION_CONNECTOR =
+      new AllowableValue("connector", "Connector", "Languages are identified by the Connector");
+  public static final AllowableValue DETECTION_LOCAL =
+      new AllowableValue(
+          "local",
+          "Local",
+          "Languages are identified by comparing the content to common words in a small number of European languages, without calling the Connector");
+  public static final AllowableValue DETECTION_LOCAL_CONNECTOR =
+      new AllowableValue(
+          "localConnector",
+          "Local then Connector",
+          "Languages are identified locally, falling back to the Connector if the local detection isn't confident enough");
+
+  public static final PropertyDescriptor PROP_DETECTION =
+      new PropertyDescriptor.Builder()
+          .name("languageDetection")
+          .displayName("Language Detection")
+          .description(
+              "How to identify the language of the content before it is translated. Content identified as already being in the target language, ignoring any region, is routed to skipped rather than translated. The Connector is only used to identify languages when the Source Language is auto, so that it isn't called for content whose language is already known.")
+          .required(true)
+          .allowableValues(
+              DETECTION_NONE, DETECTION_CONNECTOR, DETECTION_LOCAL, DETECTION_LOCAL_CONNECTOR)
+          .defaultValue(DETECTION_NONE.getValue())
+          .build();
+  public static final PropertyDescriptor PROP_DETECTION_PREFIX_SIZE =
+      new PropertyDescriptor.Builder()
+          .name("languageDetectionPrefixSize")
+          .displayName("Language Detection Prefix Size")
+          .description(
+              "The number of characters from the start of the content used to identify its language")
+          .required(true)
+          .defaultValue("1000")
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+  public static final PropertyDescriptor PROP_DETECTION_CONFIDENCE =
+      new PropertyDescriptor.Builder()
+          .name("languageDetectionConfidence")
+          .displayName("Language Detection Confidence")
+          .description(
+              "The minimum confidence, between 0 and 1, required to skip content identified as being in the target language. When using Local then Connector, local detections below this are passed to the Connector. If the Connector doesn't return a confidence, its detection is treated as certain.")
+          .required(true)
+          .defaultValue("0.7")
+          .addValidator(
+              (subject, input, context) -> {
+                boolean valid;
+                try {
+                  double d = Double.parseDouble(input);
+                  valid = d >= 0.0 && d <= 1.0;
+                } catch (NumberFormatException e) {
+                  valid = false;
+                }
+
+                return new ValidationResult.Builder()
+                    .subject(subject)
+                    .input(input)
+                    .valid(valid)
+                    .explanation("Confidence must be a number between 0 and 1")
+                    .build();
+              })
+          .build();
+
+  public static final AllowableValue METRICS_NONE =
+      new AllowableValue("none", "None", "Metrics are only published as NiFi counters");
+  public static final AllowableValue METRICS_JMX =
+      new AllowableValue(
+          "jmx",
+          "JMX",
+          "Metrics are also published as an MBean named uk.gov.dstl.nifi.machinetranslation:type=MachineTranslationProcessor,id=<processor id>");
+
+  public static final PropertyDescriptor PROP_METRICS_SINK =
+      new PropertyDescriptor.Builder()
+          .name("metricsSink")
+          .displayName("Metrics Sink")
+          .description(
+              "Where to publish translation metrics, including latency, connector wait and queue wait percentiles, in addition to NiFi counters")
+          .required(true)
+          .allowableValues(METRICS_NONE, METRICS_JMX)
+          .defaultValue(METRICS_NONE.getValue())
+          .build();
+
   public static final PropertyDescriptor PROP_EXTRA_RESOURCE =
       new PropertyDescriptor.Builder()
           .name("Extra Resources")
@@ -140,16 +491,81 @@ public class MachineTranslationProcessor extends AbstractProcessor {
           .dynamicallyModifiesClasspath(true)
           .build();
 
+  public static final String ATTR_CACHE_HIT = "mt.cache.hit";
+  public static final String ATTR_DETECTED_LANGUAGE = "mt.detected.language";
+  public static final String ATTR_DETECTED_CONFIDENCE = "mt.detected.confidence";
+  public static final String ATTR_DURATION = "mt.duration.ms";
+
+  public static final String COUNTER_CACHE_HITS = "Translation Cache Hits";
+  public static final String COUNTER_CACHE_MISSES = "Translation Cache Misses";
+  public static final String COUNTER_CACHE_EVICTIONS = "Translation Cache Evictions";
+  public static final String COUNTER_DISTRIBUTED_CACHE_HITS = "Distributed Translation Cache Hits";
+  public static final String COUNTER_DISTRIBUTED_CACHE_MISSES =
+      "Distributed Translation Cache Misses";
+  public static final String COUNTER_DISTRIBUTED_CACHE_TIMEOUTS =
+      "Distributed Translation Cache Timeouts";
+  public static final String COUNTER_SKIPPED = "Translations Skipped";
+  public static final String COUNTER_COALESCED = "Translations Coalesced";
+  public static final String COUNTER_CONNECTOR_CALLS = "Connector Translations";
+  public static final String COUNTER_CONNECTOR_TIME = "Connector Translation Time (ms)";
+  public static final String COUNTER_BYTES_SENT = "Translation Bytes Sent";
+  public static final String COUNTER_BYTES_RECEIVED = "Translation Bytes Received";
+  public static final String COUNTER_ERRORS_PREFIX = "Translation Errors - ";
+  public static final String COUNTER_RETRIES_EXHAUSTED = "Translations Routed to Retry";
+
   public static final Relationship REL_SUCCESS =
       new Relationship.Builder().name("success").description("Successfully translated").build();
   public static final Relationship REL_FAILURE =
       new Relationship.Builder().name("failure").description("Failed to translate").build();
+  public static final Relationship REL_UNSUPPORTED =
+      new Relationship.Builder()
+          .name("unsupported")
+          .description("The languages aren't supported by the Connector")
+          .build();
+  public static final Relationship REL_SKIPPED =
+      new Relationship.Builder()
+          .name("skipped")
+          .description("The content was identified as already being in the target language")
+          .build();
+  public static final Relationship REL_RETRY =
+      new Relationship.Builder()
+          .name("retry")
+          .description(
+              "The translation still failed with a retryable error after all retries, for instance because the Connector is unavailable. FlowFiles are penalized before being routed here.")
+          .build();
 
   private List<PropertyDescriptor> descriptors;
   private Set<Relationship> relationships;
 
-  private MTConnectorApi connector = null;
-  private String config = null;
+  private volatile ConnectorPool connectors = null;
+  private volatile String connectorClass = null;
+  private volatile String connectorConfigHash = null;
+  private volatile SupportedLanguages supportedLanguages = null;
+  private volatile ScheduledExecutorService supportedLanguagesRefresher = null;
+
+  private volatile String detection = DETECTION_NONE.getValue();
+  private volatile int detectionPrefixSize;
+  private volatile double detectionConfidence;
+  private volatile LocalLanguageDetector localDetector = null;
+
+  private volatile ExecutorService executor = null;
+  private volatile int concurrency = 1;
+  private volatile Integer segmentSize = null;
+  private volatile long segmentThreshold;
+  private volatile boolean detectBom = true;
+  private volatile boolean coalesce = false;
+  private final Map<String, CompletableFuture<Translation>> inFlight = new ConcurrentHashMap<>();
+
+  private volatile RetryPolicy retryPolicy = new RetryPolicy(0, 0, 0, null);
+  private volatile RateLimiter rateLimiter = null;
+  private volatile TranslationCache cache = null;
+
+  private volatile DistributedMapCacheClient distributedCache = null;
+  private volatile long distributedCacheTimeout;
+  private volatile ExecutorService distributedCacheExecutor = null;
+
+  private volatile TranslationMetrics metrics = new TranslationMetrics();
+  private volatile ObjectName metricsName = null;
 
   @Override
   protected void init(final ProcessorInitializationContext context) {
@@ -159,9 +575,34 @@ public class MachineTranslationProcessor extends AbstractProcessor {
             PROP_TARGET_LANGUAGE,
             PROP_CONNECTOR,
             PROP_CONNECTOR_CONFIG,
+            PROP_BATCH_SIZE,
+            PROP_BATCH_CONCURRENCY,
+            PROP_CONNECTOR_POOL_SIZE,
+            PROP_SUPPORTED_LANGUAGES_REFRESH,
+            PROP_SEGMENT_SIZE,
+            PROP_SEGMENT_THRESHOLD,
+            PROP_INPUT_CHARSET,
+            PROP_DETECT_BOM,
+            PROP_OUTPUT_CHARSET,
+            PROP_COALESCE,
+            PROP_MAX_RETRIES,
+            PROP_RETRY_INITIAL_DELAY,
+            PROP_RETRY_MAX_DELAY,
+            PROP_RETRY_TIME_LIMIT,
+            PROP_RETRYABLE_ERRORS,
+            PROP_RATE_LIMIT,
+            PROP_CACHE_MAX_ENTRIES,
+            PROP_CACHE_MAX_SIZE,
+            PROP_CACHE_TTL,
+            PROP_DISTRIBUTED_CACHE,
+            PROP_DISTRIBUTED_CACHE_TIMEOUT,
+            PROP_DETECTION,
+            PROP_DETECTION_PREFIX_SIZE,
+            PROP_DETECTION_CONFIDENCE,
+            PROP_METRICS_SINK,
             PROP_EXTRA_RESOURCE);
 
-    this.relationships = Set.of(REL_SUCCESS, REL_FAILURE);
+    this.relationships = Set.of(REL_SUCCESS, REL_FAILURE, REL_UNSUPPORTED, REL_SKIPPED, REL_RETRY);
   }
 
   @Override
@@ -174,114 +615,1119 @@ public class MachineTranslationProcessor extends AbstractProcessor {
     return descriptors;
   }
 
-  @Override
-  public void onTrigger(final ProcessContext context, final ProcessSession session)
-      throws ProcessException {
-    // Get Flow File
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
-      return;
+  @OnScheduled
+  public void createExecutor(final ProcessContext context) {
+    concurrency = context.getProperty(PROP_BATCH_CONCURRENCY).asInteger();
+    segmentSize = context.getProperty(PROP_SEGMENT_SIZE).asInteger();
+    segmentThreshold =
+        context.getProperty(PROP_SEGMENT_THRESHOLD).asDataSize(DataUnit.B).longValue();
+    detectBom = context.getProperty(PROP_DETECT_BOM).asBoolean();
+    coalesce = context.getProperty(PROP_COALESCE).asBoolean();
+    if (concurrency > 1) {
+      // Sized to match the connector pool, so each task can have this many translations running
+      executor = Executors.newFixedThreadPool(context.getMaxConcurrentTasks() * concurrency);
     }
+  }
+
+  @OnScheduled
+  public void createRetryPolicy(final ProcessContext context) {
+    String retryableErrors = context.getProperty(PROP_RETRYABLE_ERRORS).getValue();
+    retryPolicy =
+        new RetryPolicy(
+            context.getProperty(PROP_MAX_RETRIES).asInteger(),
+            context.getProperty(PROP_RETRY_INITIAL_DELAY).asTimePeriod(TimeUnit.MILLISECONDS),
+            Math.max(
+                context.getProperty(PROP_RETRY_INITIAL_DELAY).asTimePeriod(TimeUnit.MILLISECONDS),
+                context.getProperty(PROP_RETRY_MAX_DELAY).asTimePeriod(TimeUnit.MILLISECONDS)),
+            context.getProperty(PROP_RETRY_TIME_LIMIT).asTimePeriod(TimeUnit.MILLISECONDS),
+            retryableErrors == null || retryableErrors.isEmpty()
+                ? null
+                : Pattern.compile(retryableErrors));
 
-    String src =
-        context.getProperty(PROP_SOURCE_LANGUAGE).evaluateAttributeExpressions(flowFile).getValue();
-    String tgt =
-        context.getProperty(PROP_TARGET_LANGUAGE).evaluateAttributeExpressions(flowFile).getValue();
+    Integer rateLimit = context.getProperty(PROP_RATE_LIMIT).asInteger();
+    rateLimiter = rateLimit == null ? null : new RateLimiter(rateLimit);
+  }
+
+  /**
+   * Instantiates and configures the connectors, so that this isn't done each time the processor is
+   * triggered. If the languages don't depend on the Flow File, they are also checked against the
+   * languages the connector supports.
+   */
+  @OnScheduled
+  public void createConnectors(final ProcessContext context) {
+    connectorClass = context.getProperty(PROP_CONNECTOR).getValue();
+    connectorConfigHash = hash(context.getProperty(PROP_CONNECTOR_CONFIG).getValue());
 
-    /*
-     *  In NiFi, there's no event for property modification after validation, only before.
-     *  So we'll check here whether they've changed, and if so update the connector as required.
-     */
+    List<MTConnectorApi> instances =
+        createConnectorInstances(context, context.getProperty(PROP_BATCH_CONCURRENCY).asInteger());
 
+    MTConnectorApi connector = instances.get(0);
+    if (connector.queryEngine().isSupportedLanguagesSupported()) {
+      try {
+        supportedLanguages = new SupportedLanguages(connector.supportedLanguages());
+      } catch (ConnectorException e) {
+        throw new ProcessException("Unable to retrieve supported languages", e);
+      }
+    } else {
+      supportedLanguages = null;
+    }
+
+    if (!context.getProperty(PROP_SOURCE_LANGUAGE).isExpressionLanguagePresent()
+        && !context.getProperty(PROP_TARGET_LANGUAGE).isExpressionLanguagePresent()
+        && !isSupported(
+            context.getProperty(PROP_SOURCE_LANGUAGE).getValue(),
+            context.getProperty(PROP_TARGET_LANGUAGE).getValue())) {
+      throw new ProcessException("Requested languages aren't supported");
+    }
+
+    connectors = new ConnectorPool(instances);
+
+    detection = context.getProperty(PROP_DETECTION).getValue();
+    detectionPrefixSize = context.getProperty(PROP_DETECTION_PREFIX_SIZE).asInteger();
+    detectionConfidence =
+        Double.parseDouble(context.getProperty(PROP_DETECTION_CONFIDENCE).getValue());
+    if (DETECTION_LOCAL.getValue().equals(detection)
+        || DETECTION_LOCAL_CONNECTOR.getValue().equals(detection)) {
+      localDetector = new LocalLanguageDetector();
+    } else {
+      localDetector = null;
+    }
+
+    if ((DETECTION_CONNECTOR.getValue().equals(detection)
+            || DETECTION_LOCAL_CONNECTOR.getValue().equals(detection))
+        && !connector.queryEngine().isIdentifyLanguageSupported()) {
+      throw new ProcessException("Connector doesn't support language identification");
+    }
+
+    long refresh =
+        context.getProperty(PROP_SUPPORTED_LANGUAGES_REFRESH).asTimePeriod(TimeUnit.MILLISECONDS);
+    if (supportedLanguages != null && refresh > 0) {
+      supportedLanguagesRefresher =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread t = new Thread(r, "MachineTranslationProcessor-SupportedLanguages");
+                t.setDaemon(true);
+                return t;
+              });
+      supportedLanguagesRefresher.scheduleWithFixedDelay(
+          this::refreshSupportedLanguages, refresh, refresh, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Instantiates and configures the connectors given by the Connector Class and Connector
+   * Configuration properties. Unless the Connector Pool Size property is set, one connector is
+   * created for each concurrent translation.
+   *
+   * @param concurrency The number of translations each task performs concurrently
+   */
+  static List<MTConnectorApi> createConnectorInstances(
+      final ProcessContext context, int concurrency) {
     String connectorClass = context.getProperty(PROP_CONNECTOR).getValue();
-    boolean connectorChanged = false;
-    if (connector == null || !connector.getClass().getName().equals(connectorClass)) {
-      // Connector has changed
+
+    Map<String, Object> configMap;
+    String config = context.getProperty(PROP_CONNECTOR_CONFIG).getValue();
+    if (config == null) {
+      configMap = Collections.emptyMap();
+    } else {
+      try {
+        configMap = OBJECT_MAPPER.readValue(config, MAP);
+      } catch (IOException e) {
+        throw new ProcessException("Unable to parse connector configuration", e);
+      }
+    }
+
+    int poolSize;
+    if (context.getProperty(PROP_CONNECTOR_POOL_SIZE).isSet()) {
+      poolSize = context.getProperty(PROP_CONNECTOR_POOL_SIZE).asInteger();
+    } else {
+      poolSize = context.getMaxConcurrentTasks() * concurrency;
+    }
+
+    LOGGER.info("Creating {} instances of connector {}", poolSize, connectorClass);
+    List<MTConnectorApi> instances = new ArrayList<>(poolSize);
+    for (int i = 0; i < poolSize; i++) {
+      MTConnectorApi connector;
       try {
-        Class<?> c = Class.forName(connectorClass);
-        connector = (MTConnectorApi) c.getConstructor().newInstance();
+        connector =
+            Class.forName(connectorClass)
+                .asSubclass(MTConnectorApi.class)
+                .getConstructor()
+                .newInstance();
       } catch (Exception e) {
         throw new ProcessException("Unable to instantiate new connector", e);
       }
 
-      connectorChanged = true;
-      LOGGER.info("Connector successfully changed in configuration");
+      try {
+        connector.configure(configMap);
+      } catch (ConfigurationException e) {
+        throw new ProcessException("Unable to configure connector", e);
+      }
+
+      instances.add(connector);
     }
 
-    String currConfig = context.getProperty(PROP_CONNECTOR_CONFIG).getValue();
-    if (connectorChanged || !Objects.equals(config, currConfig)) {
-      // Config has changed, or connector has and we need to configure it
-      LOGGER.info("Reconfiguring connector");
+    return instances;
+  }
 
-      Map<String, Object> configMap;
-      if (currConfig == null) {
-        configMap = Collections.emptyMap();
-      } else {
-        try {
-          configMap = OBJECT_MAPPER.readValue(currConfig, MAP);
-        } catch (IOException e) {
-          throw new ProcessException("Unable to parse connector configuration", e);
+  /**
+   * Retrieves the supported languages from the connector, keeping the previous ones if they can't
+   * be retrieved
+   */
+  private void refreshSupportedLanguages() {
+    ConnectorPool pool = connectors;
+    if (pool == null) {
+      return;
+    }
+
+    try {
+      MTConnectorApi connector = pool.borrow();
+      try {
+        supportedLanguages = new SupportedLanguages(connector.supportedLanguages());
+      } finally {
+        pool.release(connector);
+      }
+      LOGGER.debug("Refreshed supported languages");
+    } catch (ConnectorException | RuntimeException e) {
+      LOGGER.warn("Unable to refresh supported languages", e);
+    }
+  }
+
+  @OnScheduled
+  public void createCache(final ProcessContext context) {
+    int maxEntries = context.getProperty(PROP_CACHE_MAX_ENTRIES).asInteger();
+    if (maxEntries > 0) {
+      cache =
+          new TranslationCache(
+              maxEntries,
+              context.getProperty(PROP_CACHE_MAX_SIZE).asDataSize(DataUnit.B).longValue(),
+              context.getProperty(PROP_CACHE_TTL).asTimePeriod(TimeUnit.NANOSECONDS));
+    } else {
+      cache = null;
+    }
+
+    // Lookups are done on a separate executor, so that a slow cache can't block the processor
+    if (context.getProperty(PROP_DISTRIBUTED_CACHE).isSet()) {
+      distributedCache =
+          context
+              .getProperty(PROP_DISTRIBUTED_CACHE)
+              .asControllerService(DistributedMapCacheClient.class);
+      distributedCacheTimeout =
+          context.getProperty(PROP_DISTRIBUTED_CACHE_TIMEOUT).asTimePeriod(TimeUnit.NANOSECONDS);
+      distributedCacheExecutor = createDistributedCacheExecutor(context.getMaxConcurrentTasks());
+    } else {
+      distributedCache = null;
+    }
+  }
+
+  /**
+   * Creates a fixed size executor for distributed cache operations, with a bounded queue so that
+   * operations can't build up without limit when the cache is slow or unavailable. Operations which
+   * don't fit in the queue are dropped, and lookups are cancelled so that they are treated as a
+   * miss.
+   */
+  private static ExecutorService createDistributedCacheExecutor(int maxConcurrentTasks) {
+    int threads = Math.max(2, maxConcurrentTasks);
+    AtomicInteger threadCount = new AtomicInteger();
+
+    return new ThreadPoolExecutor(
+        threads,
+        threads,
+        0L,
+        TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(DISTRIBUTED_CACHE_QUEUE_SIZE),
+        r -> {
+          Thread t =
+              new Thread(
+                  r,
+                  "MachineTranslationProcessor-DistributedCache-" + threadCount.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        },
+        (r, executor) -> {
+          LOGGER.debug("Distributed cache queue is full, dropping operation");
+          if (r instanceof Future) {
+            ((Future<?>) r).cancel(false);
+          }
+        });
+  }
+
+  @OnScheduled
+  public void registerMetrics(final ProcessContext context) {
+    metrics = new TranslationMetrics();
+
+    if (METRICS_JMX.getValue().equals(context.getProperty(PROP_METRICS_SINK).getValue())) {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try {
+        ObjectName name =
+            new ObjectName(
+                "uk.gov.dstl.nifi.machinetranslation:type=MachineTranslationProcessor,id="
+                    + getIdentifier());
+        if (server.isRegistered(name)) {
+          server.unregisterMBean(name);
         }
+        server.registerMBean(metrics, name);
+        metricsName = name;
+      } catch (JMException e) {
+        LOGGER.warn("Unable to register metrics with JMX", e);
       }
+    }
+  }
+
+  @OnStopped
+  public void unregisterMetrics() {
+    if (metricsName == null) {
+      return;
+    }
 
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+    } catch (JMException e) {
+      LOGGER.warn("Unable to unregister metrics from JMX", e);
+    }
+    metricsName = null;
+  }
+
+  @OnStopped
+  public void closeConnectors() {
+    if (supportedLanguagesRefresher != null) {
+      supportedLanguagesRefresher.shutdownNow();
+      supportedLanguagesRefresher = null;
+    }
+
+    connectors = null;
+    supportedLanguages = null;
+  }
+
+  @OnStopped
+  public void shutdownExecutor() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+
+    if (distributedCacheExecutor != null) {
+      // Allow pending puts to complete
+      distributedCacheExecutor.shutdown();
+      distributedCacheExecutor = null;
+    }
+  }
+
+  @Override
+  public void onTrigger(final ProcessContext context, final ProcessSession session)
+      throws ProcessException {
+    // Get Flow Files
+    List<FlowFile> flowFiles = session.get(context.getProperty(PROP_BATCH_SIZE).asInteger());
+    if (flowFiles.isEmpty()) {
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    for (FlowFile flowFile : flowFiles) {
+      if (flowFile.getLastQueueDate() != null) {
+        metrics.recordQueueWait(
+            TimeUnit.MILLISECONDS.toNanos(now - flowFile.getLastQueueDate()));
+      }
+    }
+
+    if (!DETECTION_NONE.getValue().equals(detection)) {
+      flowFiles = identifyLanguages(context, session, flowFiles);
+    }
+
+    // Group Flow Files by language pair, so that each group can be translated together
+    Map<LanguagePair, List<FlowFile>> batches = new LinkedHashMap<>();
+    for (FlowFile flowFile : flowFiles) {
+      String src =
+          context
+              .getProperty(PROP_SOURCE_LANGUAGE)
+              .evaluateAttributeExpressions(flowFile)
+              .getValue();
+      String tgt =
+          context
+              .getProperty(PROP_TARGET_LANGUAGE)
+              .evaluateAttributeExpressions(flowFile)
+              .getValue();
+
+      batches.computeIfAbsent(new LanguagePair(src, tgt), k -> new ArrayList<>()).add(flowFile);
+    }
+
+    for (Map.Entry<LanguagePair, List<FlowFile>> batch : batches.entrySet()) {
+      if (!isSupported(batch.getKey().getSourceLanguage(), batch.getKey().getTargetLanguage())) {
+        LOGGER.warn(
+            "Translation from {} to {} isn't supported, routing {} FlowFiles to unsupported",
+            batch.getKey().getSourceLanguage(),
+            batch.getKey().getTargetLanguage(),
+            batch.getValue().size());
+        session.transfer(batch.getValue(), REL_UNSUPPORTED);
+        continue;
+      }
+
+      translateBatch(
+          context,
+          session,
+          batch.getKey().getSourceLanguage(),
+          batch.getKey().getTargetLanguage(),
+          batch.getValue());
+    }
+  }
+
+  /**
+   * Identifies the language of each Flow File from the start of its content, and routes those
+   * already in the target language to skipped. Identifications by the connector are submitted to
+   * the executor (if configured) so that they can run concurrently. If the language can't be
+   * identified, the Flow File is translated as normal.
+   *
+   * @return The Flow Files which still need translating
+   */
+  private List<FlowFile> identifyLanguages(
+      final ProcessContext context, final ProcessSession session, List<FlowFile> flowFiles) {
+    Executor ex = executor == null ? Runnable::run : executor;
+
+    List<CompletableFuture<DetectedLanguage>> detections = new ArrayList<>();
+    for (FlowFile flowFile : flowFiles) {
+      boolean useConnector =
+          ConnectorUtils.LANGUAGE_AUTO.equals(
+              context
+                  .getProperty(PROP_SOURCE_LANGUAGE)
+                  .evaluateAttributeExpressions(flowFile)
+                  .getValue());
+      if (!useConnector && localDetector == null) {
+        detections.add(CompletableFuture.completedFuture(null));
+        continue;
+      }
+
+      char[] prefix = new char[detectionPrefixSize];
+      int length;
+      try (InputStream is = session.read(flowFile)) {
+        Charset charset = charset(context, PROP_INPUT_CHARSET, flowFile);
+        length = IOUtils.read(openReader(is, charset), prefix);
+      } catch (IOException | IllegalArgumentException e) {
+        LOGGER.warn("Unable to read flow file content for language identification", e);
+        detections.add(CompletableFuture.completedFuture(null));
+        continue;
+      }
+
+      String content = new String(prefix, 0, length);
+      detections.add(
+          CompletableFuture.supplyAsync(() -> identifyLanguage(content, useConnector), ex));
+    }
+
+    List<FlowFile> remaining = new ArrayList<>();
+    for (int i = 0; i < flowFiles.size(); i++) {
+      FlowFile flowFile = flowFiles.get(i);
+
+      DetectedLanguage detected;
       try {
-        connector.configure(configMap);
-      } catch (ConfigurationException e) {
-        throw new ProcessException("Unable to configure connector", e);
+        detected = detections.get(i).join();
+      } catch (CompletionException e) {
+        LOGGER.warn("Unable to identify language", e.getCause());
+        detected = null;
+      }
+
+      if (detected == null) {
+        remaining.add(flowFile);
+        continue;
       }
-      config = currConfig;
 
-      // Check that the languages are supported, if supported and auto isn't set
-      if (connector.queryEngine().isSupportedLanguagesSupported()) {
-        LOGGER.debug("Supported Languages is enabled, checking configuration is valid");
+      flowFile =
+          session.putAllAttributes(
+              flowFile,
+              Map.of(
+                  ATTR_DETECTED_LANGUAGE,
+                  detected.getLanguage(),
+                  ATTR_DETECTED_CONFIDENCE,
+                  String.valueOf(detected.getConfidence())));
+
+      String tgt =
+          context
+              .getProperty(PROP_TARGET_LANGUAGE)
+              .evaluateAttributeExpressions(flowFile)
+              .getValue();
+      if (primaryLanguage(detected.getLanguage()).equals(primaryLanguage(tgt))
+          && detected.getConfidence() >= detectionConfidence) {
+        LOGGER.debug("Content is already in the target language, skipping translation");
+        session.adjustCounter(COUNTER_SKIPPED, 1, false);
+        session.transfer(flowFile, REL_SKIPPED);
+      } else {
+        remaining.add(flowFile);
+      }
+    }
+
+    return remaining;
+  }
+
+  /**
+   * Returns the primary language subtag of a language tag, so that regional variants such as en-GB
+   * and en_US are treated as the same language as en
+   */
+  static String primaryLanguage(String tag) {
+    if (tag == null) {
+      return "";
+    }
+
+    String language = Locale.forLanguageTag(tag.replace('_', '-')).getLanguage();
+    return language.isEmpty() ? tag.toLowerCase(Locale.ROOT) : language;
+  }
+
+  /**
+   * Identifies the language of the content, either locally or using a connector from the pool
+   * depending on the configuration
+   *
+   * @param useConnector Whether the connector can be used, if the configuration allows it
+   * @return The most likely language, or null if it couldn't be identified
+   */
+  private DetectedLanguage identifyLanguage(String content, boolean useConnector) {
+    if (localDetector != null) {
+      DetectedLanguage detected = localDetector.detect(content);
+      if (DETECTION_LOCAL.getValue().equals(detection)
+          || !useConnector
+          || (detected != null && detected.getConfidence() >= detectionConfidence)) {
+        return detected;
+      }
+    }
+
+    if (!useConnector) {
+      return null;
+    }
+
+    List<LanguageDetection> detections;
+    try {
+      detections = withRetries("Language detection", () -> identifyLanguageOnce(content));
+    } catch (ConnectorException ce) {
+      throw new CompletionException(ce);
+    }
+
+    if (detections == null) {
+      return null;
+    }
+
+    return detections.stream()
+        .filter(d -> d.getLanguage() != null)
+        .max(Comparator.comparingDouble(MachineTranslationProcessor::probability))
+        .map(d -> new DetectedLanguage(d.getLanguage(), probability(d)))
+        .orElse(null);
+  }
+
+  /** Returns the probability of a detection, treating a missing probability as certain */
+  private static double probability(LanguageDetection detection) {
+    return detection.getProbability() == null ? 1.0 : detection.getProbability();
+  }
+
+  /**
+   * Returns true if the languages are supported, or if the connector doesn't provide supported
+   * languages
+   */
+  private boolean isSupported(String src, String tgt) {
+    SupportedLanguages supported = supportedLanguages;
+    return supported == null || supported.isSupported(src, tgt);
+  }
+
+  /** Identifies the language of content using a connector from the pool, within the rate limit */
+  private List<LanguageDetection> identifyLanguageOnce(String content) throws ConnectorException {
+    acquireRateLimit();
+
+    ConnectorPool pool = connectors;
+    MTConnectorApi connector = pool.borrow();
+    try {
+      return connector.identifyLanguage(content);
+    } finally {
+      pool.release(connector);
+    }
+  }
+
+  /** Translates content, retrying with back-off if it fails with a retryable error */
+  private Translation translate(String src, String tgt, String content, CallTimer timer)
+      throws ConnectorException {
+    return withRetries("Translation", () -> translateOnce(src, tgt, content, timer));
+  }
+
+  /**
+   * Makes a call to the connector, retrying with back-off if it fails with a retryable error. The
+   * last error is thrown once the retries, or the time allowed for them, have been used up.
+   */
+  private <T> T withRetries(String operation, ConnectorCall<T> call) throws ConnectorException {
+    RetryPolicy policy = retryPolicy;
+    long delayed = 0;
+    for (int attempt = 0; ; attempt++) {
+      try {
+        return call.call();
+      } catch (ConnectorException ce) {
+        long delay = policy.delayMillis(attempt);
+        if (!policy.isRetryable(ce) || !policy.canRetry(attempt, delayed, delay)) {
+          throw ce;
+        }
 
-        Collection<LanguagePair> languagePairs;
+        LOGGER.debug("{} failed with a retryable error, retrying in {} ms", operation, delay, ce);
         try {
-          languagePairs = connector.supportedLanguages();
-        } catch (ConnectorException e) {
-          throw new ProcessException("Unable to retrieve supported languages", e);
+          Thread.sleep(delay);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw ce;
         }
+        delayed += delay;
+      }
+    }
+  }
+
+  /** Waits for the rate limit, if there is one, before a call is made to the connector */
+  private void acquireRateLimit() throws ConnectorException {
+    RateLimiter limiter = rateLimiter;
+    if (limiter != null) {
+      try {
+        limiter.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ConnectorException("Interrupted waiting for rate limit");
+      }
+    }
+  }
+
+  /**
+   * Translates content using a connector from the pool, waiting for one to become available if
+   * they are all in use, and for the rate limit if there is one. The time spent translating is
+   * added to the timer.
+   */
+  private Translation translateOnce(String src, String tgt, String content, CallTimer timer)
+      throws ConnectorException {
+    acquireRateLimit();
+
+    ConnectorPool pool = connectors;
+    long start = System.nanoTime();
+    MTConnectorApi connector = pool.borrow();
+    long borrowed = System.nanoTime();
+    try {
+      return connector.translate(src, tgt, content);
+    } catch (ConnectorException | RuntimeException e) {
+      metrics.recordError(TranslationMetrics.errorCategory(e));
+      throw e;
+    } finally {
+      long elapsed = System.nanoTime() - borrowed;
+      pool.release(connector);
+
+      metrics.recordTranslation(borrowed - start, elapsed);
+      timer.record(elapsed);
+    }
+  }
+
+  /**
+   * Records the calls made to the connector for a Flow File as counters and an attribute, and the
+   * size of its content before and after translation
+   */
+  private FlowFile recordTranslated(
+      final ProcessSession session, FlowFile original, FlowFile translated, CallTimer timer) {
+    long millis = TimeUnit.NANOSECONDS.toMillis(timer.nanos.sum());
+
+    session.adjustCounter(COUNTER_CONNECTOR_CALLS, timer.calls.sum(), false);
+    session.adjustCounter(COUNTER_CONNECTOR_TIME, millis, false);
+    session.adjustCounter(COUNTER_BYTES_SENT, original.getSize(), false);
+    session.adjustCounter(COUNTER_BYTES_RECEIVED, translated.getSize(), false);
+    metrics.recordBytes(original.getSize(), translated.getSize());
+
+    return session.putAttribute(translated, ATTR_DURATION, String.valueOf(millis));
+  }
+
+  /** Records a failed translation, in one of the categories defined by TranslationMetrics */
+  private static void recordFailed(final ProcessSession session, Throwable cause) {
+    session.adjustCounter(
+        COUNTER_ERRORS_PREFIX + TranslationMetrics.errorCategory(cause), 1, false);
+  }
+
+  /**
+   * Routes a Flow File whose translation failed. If the error was retryable, the retries have been
+   * exhausted and the Connector is probably unavailable, so the Flow File is penalized and routed
+   * to retry, and the processor yields to give the Connector time to recover. Otherwise, it is
+   * routed to failure.
+   */
+  private void routeFailed(
+      final ProcessContext context,
+      final ProcessSession session,
+      FlowFile flowFile,
+      Throwable cause) {
+    LOGGER.warn("Translation failed", cause);
+    recordFailed(session, cause);
+
+    if (cause instanceof ConnectorException && retryPolicy.isRetryable(cause)) {
+      session.adjustCounter(COUNTER_RETRIES_EXHAUSTED, 1, false);
+      session.transfer(session.penalize(flowFile), REL_RETRY);
+      context.yield();
+    } else {
+      session.transfer(flowFile, REL_FAILURE);
+    }
+  }
 
-        boolean matchFound;
-        if (ConnectorUtils.LANGUAGE_AUTO.equals(src)) {
-          matchFound = languagePairs.stream().anyMatch(lp -> lp.getTargetLanguage().equals(tgt));
+  /**
+   * Translates a batch of Flow Files which share the same language pair. As the connector only
+   * translates a single piece of content at a time, translations are submitted to the executor (if
+   * configured) so that they can run concurrently. Translations are taken from the local or
+   * distributed caches instead where possible, and identical content which is already being
+   * translated waits for that translation rather than calling the connector again.
+   */
+  private void translateBatch(
+      final ProcessContext context,
+      final ProcessSession session,
+      String src,
+      String tgt,
+      List<FlowFile> flowFiles) {
+    // Segmented Flow Files are translated one at a time, as their segments use the executor
+    List<FlowFile> unsegmented = new ArrayList<>();
+    for (FlowFile flowFile : flowFiles) {
+      if (segmentSize != null || flowFile.getSize() > segmentThreshold) {
+        translateSegmented(context, session, src, tgt, flowFile);
+      } else {
+        unsegmented.add(flowFile);
+      }
+    }
+
+    Executor ex = executor == null ? Runnable::run : executor;
+    boolean caching = cache != null || distributedCache != null;
+    boolean keyed = caching || coalesce;
+
+    // Read content
+    List<PendingTranslation> pending = new ArrayList<>();
+    for (FlowFile flowFile : unsegmented) {
+      LOGGER.debug("Reading content from FlowFile");
+      String originalContent;
+      try (InputStream is = session.read(flowFile)) {
+        originalContent =
+            readContent(is, charset(context, PROP_INPUT_CHARSET, flowFile), flowFile.getSize());
+      } catch (IOException | IllegalArgumentException e) {
+        LOGGER.warn("Unable to read flow file content", e);
+        session.transfer(flowFile, REL_FAILURE);
+        continue;
+      }
+
+      pending.add(
+          new PendingTranslation(
+              flowFile,
+              originalContent,
+              keyed ? TranslationCache.key(src, tgt, originalContent) : null));
+    }
+
+    // Check the caches
+    if (cache != null) {
+      for (PendingTranslation p : pending) {
+        Translation cached = cache.get(p.cacheKey);
+        if (cached != null) {
+          LOGGER.debug("Using cached translation");
+          session.adjustCounter(COUNTER_CACHE_HITS, 1, false);
+          p.setCached(cached);
         } else {
-          LanguagePair configPair = new LanguagePair(src, tgt);
-          matchFound = languagePairs.stream().anyMatch(lp -> lp.equals(configPair));
+          session.adjustCounter(COUNTER_CACHE_MISSES, 1, false);
         }
+      }
+    }
 
-        if (!matchFound) {
-          throw new ProcessException("Requested languages aren't supported");
+    if (distributedCache != null) {
+      lookupDistributedCache(session, pending);
+    }
+
+    // Submit translations for anything that wasn't cached, or join one already in flight
+    Map<String, CompletableFuture<Translation>> submitted = new HashMap<>();
+    for (PendingTranslation p : pending) {
+      if (p.translation != null) {
+        continue;
+      }
+
+      if (!coalesce) {
+        p.translation = submitTranslation(src, tgt, p, ex);
+        continue;
+      }
+
+      CompletableFuture<Translation> shared = submitted.get(p.cacheKey);
+      if (shared == null) {
+        CompletableFuture<Translation> leader = new CompletableFuture<>();
+        shared = inFlight.putIfAbsent(p.cacheKey, leader);
+        if (shared == null) {
+          submitted.put(p.cacheKey, leader);
+          p.translation = leader;
+          submitTranslation(src, tgt, p, ex)
+              .whenComplete(
+                  (t, e) -> {
+                    inFlight.remove(p.cacheKey, leader);
+                    if (e == null) {
+                      leader.complete(t);
+                    } else {
+                      leader.completeExceptionally(e);
+                    }
+                  });
+          continue;
         }
       }
+
+      LOGGER.debug("Waiting for identical translation already in flight");
+      session.adjustCounter(COUNTER_COALESCED, 1, false);
+      p.translation = shared;
+      p.coalesced = true;
     }
 
-    // Read content
-    LOGGER.debug("Reading content from FlowFile");
-    String originalContent;
-    try (InputStream is = session.read(flowFile)) {
-      originalContent = IOUtils.toString(is, StandardCharsets.UTF_8);
-    } catch (IOException ioe) {
-      session.transfer(flowFile, REL_FAILURE);
-      throw new ProcessException("Unable to read flow file content", ioe);
+    // Write results back, in the same order the Flow Files were received
+    for (PendingTranslation p : pending) {
+      FlowFile flowFile = p.flowFile;
+
+      Translation t;
+      try {
+        t = p.translation.join();
+      } catch (CompletionException | CancellationException e) {
+        routeFailed(context, session, flowFile, e.getCause() == null ? e : e.getCause());
+        continue;
+      }
+
+      if (caching) {
+        if (!p.cacheHit && !p.coalesced) {
+          addToCaches(session, p.cacheKey, t);
+        }
+        flowFile = session.putAttribute(flowFile, ATTR_CACHE_HIT, String.valueOf(p.cacheHit));
+      }
+
+      Charset outputCharset;
+      try {
+        outputCharset = charset(context, PROP_OUTPUT_CHARSET, flowFile);
+      } catch (IllegalArgumentException e) {
+        LOGGER.warn("Invalid output character set", e);
+        session.transfer(flowFile, REL_FAILURE);
+        continue;
+      }
+
+      LOGGER.debug("Writing results back to FlowFile");
+      FlowFile translated =
+          session.write(
+              flowFile, outputStream -> writeContent(t.getContent(), outputCharset, outputStream));
+      if (!p.cacheHit && !p.coalesced) {
+        translated = recordTranslated(session, p.flowFile, translated, p.timer);
+      }
+      session.transfer(translated, REL_SUCCESS);
     }
+  }
 
-    // Perform translation
+  /** Evaluates a character set property for a Flow File */
+  private static Charset charset(
+      final ProcessContext context, PropertyDescriptor property, FlowFile flowFile) {
+    return Charset.forName(
+        context.getProperty(property).evaluateAttributeExpressions(flowFile).getValue());
+  }
+
+  /**
+   * Opens a reader which decodes content as it is read, using the character set identified by its
+   * byte order mark if there is one and detection is enabled, and the given character set otherwise
+   */
+  private Reader openReader(InputStream is, Charset charset) throws IOException {
+    if (!detectBom) {
+      return new InputStreamReader(is, charset);
+    }
+
+    BOMInputStream bomStream = new BOMInputStream(is, false, BYTE_ORDER_MARKS);
+    String bomCharset = bomStream.getBOMCharsetName();
+
+    return new InputStreamReader(
+        bomStream, bomCharset == null ? charset : Charset.forName(bomCharset));
+  }
+
+  /** Submits a translation to the executor, recording the time spent on the pending timer */
+  private CompletableFuture<Translation> submitTranslation(
+      String src, String tgt, PendingTranslation p, Executor ex) {
     LOGGER.debug("Performing translation");
-    Translation t;
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return translate(src, tgt, p.content, p.timer);
+          } catch (ConnectorException ce) {
+            throw new CompletionException(ce);
+          }
+        },
+        ex);
+  }
+
+  /**
+   * Reads content as text. The content is read into an array of exactly its size, rather than one
+   * which is repeatedly grown and copied, and then decoded straight into the string, using the
+   * character set identified by its byte order mark if there is one and detection is enabled. The
+   * content is held in memory in full, so this is only used for content below the Segment
+   * Threshold.
+   */
+  private String readContent(InputStream is, Charset charset, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Content is too large to translate without setting Segment Size");
+    }
+
+    byte[] bytes = new byte[(int) size];
+    int length = IOUtils.read(is, bytes);
+
+    if (detectBom) {
+      for (ByteOrderMark bom : BYTE_ORDER_MARKS) {
+        if (startsWith(bytes, length, bom)) {
+          return new String(
+              bytes, bom.length(), length - bom.length(), Charset.forName(bom.getCharsetName()));
+        }
+      }
+    }
+
+    return new String(bytes, 0, length, charset);
+  }
+
+  /** Returns true if the first length bytes start with a byte order mark */
+  private static boolean startsWith(byte[] bytes, int length, ByteOrderMark bom) {
+    if (length < bom.length()) {
+      return false;
+    }
+
+    for (int i = 0; i < bom.length(); i++) {
+      if (bytes[i] != (byte) bom.get(i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Writes text in the given character set, encoding it a buffer at a time rather than converting
+   * it to a single byte array first
+   */
+  private static void writeContent(String content, Charset charset, OutputStream outputStream)
+      throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, charset));
+    writer.write(content);
+    writer.flush();
+  }
+
+  /**
+   * Translates a Flow File in segments, reading segments and writing translations as it goes.
+   * Segments are submitted to the executor (if configured), with up to the configured concurrency
+   * in flight at once, and translations are written in the same order as the original segments.
+   */
+  private void translateSegmented(
+      final ProcessContext context,
+      final ProcessSession session,
+      String src,
+      String tgt,
+      FlowFile flowFile) {
+    Executor ex = executor == null ? Runnable::run : executor;
+    CallTimer timer = new CallTimer();
+
+    Charset inputCharset;
+    Charset outputCharset;
     try {
-      t = connector.translate(src, tgt, originalContent);
-    } catch (ConnectorException ce) {
-      LOGGER.warn("Translation failed", ce);
+      inputCharset = charset(context, PROP_INPUT_CHARSET, flowFile);
+      outputCharset = charset(context, PROP_OUTPUT_CHARSET, flowFile);
+    } catch (IllegalArgumentException e) {
+      LOGGER.warn("Invalid character set", e);
       session.transfer(flowFile, REL_FAILURE);
       return;
     }
 
-    // Write results back
-    LOGGER.debug("Writing results back to FlowFile");
-    session.write(
-        flowFile,
-        outputStream -> IOUtils.write(t.getContent(), outputStream, StandardCharsets.UTF_8));
-    session.transfer(flowFile, REL_SUCCESS);
+    FlowFile translated;
+    try {
+      translated =
+          session.write(
+              flowFile,
+              (in, out) -> {
+                TextSegmenter segmenter =
+                    new TextSegmenter(
+                        openReader(in, inputCharset),
+                        segmentSize == null ? DEFAULT_SEGMENT_SIZE : segmentSize);
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, outputCharset));
+
+                Deque<CompletableFuture<String>> pendingSegments = new ArrayDeque<>();
+                try {
+                  String segment;
+                  while ((segment = segmenter.next()) != null) {
+                    if (pendingSegments.size() >= concurrency) {
+                      writer.write(pendingSegments.remove().join());
+                    }
+
+                    String s = segment;
+                    pendingSegments.add(
+                        CompletableFuture.supplyAsync(
+                            () -> translateSegment(src, tgt, s, timer), ex));
+                  }
+
+                  while (!pendingSegments.isEmpty()) {
+                    writer.write(pendingSegments.remove().join());
+                  }
+                } catch (CompletionException e) {
+                  pendingSegments.forEach(f -> f.cancel(true));
+                  throw new ProcessException("Translation failed", e.getCause());
+                }
+
+                writer.flush();
+              });
+    } catch (ProcessException pe) {
+      routeFailed(context, session, flowFile, pe.getCause() == null ? pe : pe.getCause());
+      return;
+    }
+
+    translated = recordTranslated(session, flowFile, translated, timer);
+    session.transfer(translated, REL_SUCCESS);
+  }
+
+  /**
+   * Translates a segment, leaving any leading or trailing whitespace untouched so that segments
+   * are joined back together in the same way as the original
+   */
+  private String translateSegment(String src, String tgt, String segment, CallTimer timer) {
+    int start = 0;
+    while (start < segment.length() && Character.isWhitespace(segment.charAt(start))) {
+      start++;
+    }
+
+    int end = segment.length();
+    while (end > start && Character.isWhitespace(segment.charAt(end - 1))) {
+      end--;
+    }
+
+    if (start == end) {
+      return segment;
+    }
+
+    Translation t;
+    try {
+      t = translate(src, tgt, segment.substring(start, end), timer);
+    } catch (ConnectorException ce) {
+      throw new CompletionException(ce);
+    }
+
+    return segment.substring(0, start) + t.getContent() + segment.substring(end);
+  }
+
+  /**
+   * Looks up translations which weren't found in the local cache from the distributed cache. All
+   * lookups are made concurrently, and any that haven't returned within the timeout are treated as
+   * a cache miss.
+   */
+  private void lookupDistributedCache(
+      final ProcessSession session, List<PendingTranslation> pending) {
+    Map<PendingTranslation, Future<Translation>> lookups = new LinkedHashMap<>();
+    for (PendingTranslation p : pending) {
+      if (p.translation == null) {
+        lookups.put(
+            p,
+            distributedCacheExecutor.submit(
+                () ->
+                    distributedCache.get(
+                        distributedKey(p.cacheKey), KEY_SERIALIZER, TRANSLATION_SERIALIZER)));
+      }
+    }
+
+    long deadline = System.nanoTime() + distributedCacheTimeout;
+    for (Map.Entry<PendingTranslation, Future<Translation>> lookup : lookups.entrySet()) {
+      Translation cached = null;
+      try {
+        cached = lookup.getValue().get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        LOGGER.debug("Timed out waiting for distributed cache");
+        session.adjustCounter(COUNTER_DISTRIBUTED_CACHE_TIMEOUTS, 1, false);
+        lookup.getValue().cancel(true);
+        continue;
+      } catch (ExecutionException e) {
+        LOGGER.warn("Unable to retrieve translation from distributed cache", e.getCause());
+      } catch (CancellationException e) {
+        LOGGER.debug("Distributed cache lookup was dropped as the queue is full");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        lookup.getValue().cancel(false);
+        continue;
+      }
+
+      if (cached != null) {
+        LOGGER.debug("Using translation from distributed cache");
+        session.adjustCounter(COUNTER_DISTRIBUTED_CACHE_HITS, 1, false);
+        lookup.getKey().setCached(cached);
+
+        // Promote to the local cache, so it's found there next time
+        if (cache != null) {
+          session.adjustCounter(
+              COUNTER_CACHE_EVICTIONS, cache.put(lookup.getKey().cacheKey, cached), false);
+        }
+      } else {
+        session.adjustCounter(COUNTER_DISTRIBUTED_CACHE_MISSES, 1, false);
+      }
+    }
+  }
+
+  /**
+   * Adds a translation to the local cache, and to the distributed cache without waiting for it to
+   * be stored
+   */
+  private void addToCaches(final ProcessSession session, String cacheKey, Translation translation) {
+    if (cache != null) {
+      session.adjustCounter(COUNTER_CACHE_EVICTIONS, cache.put(cacheKey, translation), false);
+    }
+
+    if (distributedCache != null) {
+      DistributedMapCacheClient client = distributedCache;
+      String key = distributedKey(cacheKey);
+      distributedCacheExecutor.execute(
+          () -> {
+            try {
+              client.put(key, translation, KEY_SERIALIZER, TRANSLATION_SERIALIZER);
+            } catch (IOException e) {
+              LOGGER.warn("Unable to add translation to distributed cache", e);
+            }
+          });
+    }
+  }
+
+  /**
+   * Adds the connector and a hash of its configuration to a cache key, as translations from
+   * different connectors, or the same connector configured differently, shouldn't be shared
+   */
+  private String distributedKey(String cacheKey) {
+    return connectorClass + ':' + connectorConfigHash + ':' + cacheKey;
+  }
+
+  /** Returns a SHA-256 hash of a string, or an empty string if it is null */
+  private static String hash(String s) {
+    if (s == null) {
+      return "";
+    }
+
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // All Java implementations are required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+
+    return Base64.getEncoder().encodeToString(digest.digest(s.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /** A Flow File in a batch, and its translation once it has been retrieved or submitted */
+  private static class PendingTranslation {
+    private final FlowFile flowFile;
+    private final String content;
+    private final String cacheKey;
+    private final CallTimer timer = new CallTimer();
+
+    private CompletableFuture<Translation> translation = null;
+    private boolean cacheHit = false;
+    private boolean coalesced = false;
+
+    private PendingTranslation(FlowFile flowFile, String content, String cacheKey) {
+      this.flowFile = flowFile;
+      this.content = content;
+      this.cacheKey = cacheKey;
+    }
+
+    private void setCached(Translation cached) {
+      translation = CompletableFuture.completedFuture(cached);
+      cacheHit = true;
+    }
+  }
+
+  /** A call to the connector, which can be retried */
+  private interface ConnectorCall<T> {
+    T call() throws ConnectorException;
+  }
+
+  /** Total number and duration of calls made to the connector, from any thread */
+  private static class CallTimer {
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    private void record(long elapsed) {
+      calls.increment();
+      nanos.add(elapsed);
+    }
   }
 }
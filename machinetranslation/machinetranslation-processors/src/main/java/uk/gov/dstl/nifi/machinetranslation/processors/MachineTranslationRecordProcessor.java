@@ -0,0 +1,513 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.nifi.annotation.behavior.RequiresInstanceClassLoading;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.*;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.record.path.FieldValue;
+import org.apache.nifi.record.path.RecordPath;
+import org.apache.nifi.record.path.exception.RecordPathException;
+import org.apache.nifi.record.path.validation.RecordPathValidator;
+import org.apache.nifi.schema.access.SchemaNotFoundException;
+import org.apache.nifi.serialization.MalformedRecordException;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.RecordReaderFactory;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.WriteResult;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.gov.dstl.machinetranslation.connector.api.MTConnectorApi;
+import uk.gov.dstl.machinetranslation.connector.api.Translation;
+import uk.gov.dstl.machinetranslation.connector.api.exceptions.ConnectorException;
+
+/**
+ * NiFi processor for translating fields within records, so that record-oriented data doesn't
+ * need splitting into a FlowFile per record first. Records are read, translated and written in
+ * batches, so only one batch of records is held in memory at a time.
+ */
+@Tags({"translation", "machine translation", "dstl", "text", "record"})
+@CapabilityDescription(
+    "Translates one or more fields of each record using a configurable Machine Translation engine")
+@SeeAlso(MachineTranslationProcessor.class)
+@WritesAttributes({
+  @WritesAttribute(attribute = "record.count", description = "The number of records written"),
+  @WritesAttribute(
+      attribute = "mime.type",
+      description = "The MIME type given by the Record Writer"),
+  @WritesAttribute(
+      attribute = MachineTranslationRecordProcessor.ATTR_UNSUPPORTED_COUNT,
+      description =
+          "The number of records written untranslated because their languages aren't supported by the connector"),
+  @WritesAttribute(
+      attribute = MachineTranslationProcessor.ATTR_DURATION,
+      description = "The time spent translating the FlowFile's fields, in milliseconds")
+})
+@RequiresInstanceClassLoading
+public class MachineTranslationRecordProcessor extends AbstractProcessor {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(MachineTranslationRecordProcessor.class);
+
+  public static final PropertyDescriptor PROP_RECORD_READER =
+      new PropertyDescriptor.Builder()
+          .name("recordReader")
+          .displayName("Record Reader")
+          .description("The Record Reader used to read records from FlowFiles")
+          .required(true)
+          .identifiesControllerService(RecordReaderFactory.class)
+          .build();
+  public static final PropertyDescriptor PROP_RECORD_WRITER =
+      new PropertyDescriptor.Builder()
+          .name("recordWriter")
+          .displayName("Record Writer")
+          .description("The Record Writer used to write translated records")
+          .required(true)
+          .identifiesControllerService(RecordSetWriterFactory.class)
+          .build();
+
+  public static final PropertyDescriptor PROP_FIELDS =
+      new PropertyDescriptor.Builder()
+          .name("fields")
+          .displayName("Fields to Translate")
+          .description(
+              "RecordPaths selecting the fields to translate, one per line. Each string field selected in a record is translated, unless it is empty. Fields of other types are left unchanged, so that the schema isn't changed.")
+          .required(true)
+          .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+          .addValidator(
+              (subject, input, context) -> {
+                ValidationResult.Builder result =
+                    new ValidationResult.Builder().subject(subject).input(input);
+                try {
+                  compileRecordPaths(input);
+                  return result.valid(true).build();
+                } catch (RecordPathException e) {
+                  return result
+                      .valid(false)
+                      .explanation("Invalid RecordPath: " + e.getMessage())
+                      .build();
+                }
+              })
+          .build();
+  public static final PropertyDescriptor PROP_SOURCE_LANGUAGE_FIELD =
+      new PropertyDescriptor.Builder()
+          .name("sourceLanguageField")
+          .displayName("Source Language Field")
+          .description(
+              "A RecordPath selecting the field which holds the language to translate each record from. Records where the field is missing or empty are translated from the Source Language.")
+          .required(false)
+          .addValidator(new RecordPathValidator())
+          .build();
+
+  public static final PropertyDescriptor PROP_RECORD_BATCH_SIZE =
+      new PropertyDescriptor.Builder()
+          .name("recordBatchSize")
+          .displayName("Record Batch Size")
+          .description(
+              "The number of records to read before their fields are translated. Records are written as soon as their batch has been translated, so memory use is bounded by the batch size rather than the size of the FlowFile.")
+          .required(true)
+          .defaultValue("100")
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+  public static final PropertyDescriptor PROP_BATCH_CONCURRENCY =
+      new PropertyDescriptor.Builder()
+          .name("batchConcurrency")
+          .displayName("Batch Concurrency")
+          .description(
+              "The number of fields within a batch of records each concurrent task can translate at once. Fields are translated on a pool of threads and connectors shared by all tasks, sized Concurrent Tasks multiplied by Batch Concurrency.")
+          .required(true)
+          .defaultValue("1")
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final String ATTR_RECORD_COUNT = "record.count";
+  public static final String ATTR_UNSUPPORTED_COUNT = "mt.records.unsupported";
+
+  public static final String COUNTER_RECORDS = "Records Translated";
+  public static final String COUNTER_FIELDS = "Record Fields Translated";
+  public static final String COUNTER_UNSUPPORTED = "Records With Unsupported Languages";
+
+  public static final Relationship REL_SUCCESS =
+      new Relationship.Builder()
+          .name("success")
+          .description("FlowFiles whose records were successfully translated")
+          .build();
+  public static final Relationship REL_FAILURE =
+      new Relationship.Builder()
+          .name("failure")
+          .description(
+              "FlowFiles which couldn't be read or written as records, or where a translation failed")
+          .build();
+
+  private List<PropertyDescriptor> descriptors;
+  private Set<Relationship> relationships;
+
+  private volatile ConnectorPool connectors = null;
+  private volatile SupportedLanguages supportedLanguages = null;
+  private volatile List<RecordPath> fieldPaths;
+  private volatile RecordPath sourceLanguagePath;
+  private volatile int batchSize;
+  private volatile ExecutorService executor = null;
+
+  @Override
+  protected void init(final ProcessorInitializationContext context) {
+    this.descriptors =
+        List.of(
+            PROP_RECORD_READER,
+            PROP_RECORD_WRITER,
+            PROP_FIELDS,
+            PROP_SOURCE_LANGUAGE_FIELD,
+            MachineTranslationProcessor.PROP_SOURCE_LANGUAGE,
+            MachineTranslationProcessor.PROP_TARGET_LANGUAGE,
+            MachineTranslationProcessor.PROP_CONNECTOR,
+            MachineTranslationProcessor.PROP_CONNECTOR_CONFIG,
+            PROP_RECORD_BATCH_SIZE,
+            PROP_BATCH_CONCURRENCY,
+            MachineTranslationProcessor.PROP_CONNECTOR_POOL_SIZE,
+            MachineTranslationProcessor.PROP_EXTRA_RESOURCE);
+
+    this.relationships = Set.of(REL_SUCCESS, REL_FAILURE);
+  }
+
+  @Override
+  public Set<Relationship> getRelationships() {
+    return this.relationships;
+  }
+
+  @Override
+  public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+    return descriptors;
+  }
+
+  /** Compiles a RecordPath from each non-empty line */
+  private static List<RecordPath> compileRecordPaths(String paths) {
+    List<RecordPath> compiled = new ArrayList<>();
+    for (String path : paths.split("\\R")) {
+      if (!path.trim().isEmpty()) {
+        compiled.add(RecordPath.compile(path.trim()));
+      }
+    }
+
+    return compiled;
+  }
+
+  /**
+   * Compiles the RecordPaths, and instantiates and configures the connectors, so that this isn't
+   * done for each FlowFile
+   */
+  @OnScheduled
+  public void createConnectors(final ProcessContext context) {
+    fieldPaths = compileRecordPaths(context.getProperty(PROP_FIELDS).getValue());
+    sourceLanguagePath =
+        context.getProperty(PROP_SOURCE_LANGUAGE_FIELD).isSet()
+            ? RecordPath.compile(context.getProperty(PROP_SOURCE_LANGUAGE_FIELD).getValue())
+            : null;
+    batchSize = context.getProperty(PROP_RECORD_BATCH_SIZE).asInteger();
+
+    int concurrency = context.getProperty(PROP_BATCH_CONCURRENCY).asInteger();
+    List<MTConnectorApi> instances =
+        MachineTranslationProcessor.createConnectorInstances(context, concurrency);
+
+    MTConnectorApi connector = instances.get(0);
+    if (connector.queryEngine().isSupportedLanguagesSupported()) {
+      try {
+        supportedLanguages = new SupportedLanguages(connector.supportedLanguages());
+      } catch (ConnectorException e) {
+        throw new ProcessException("Unable to retrieve supported languages", e);
+      }
+    } else {
+      supportedLanguages = null;
+    }
+
+    connectors = new ConnectorPool(instances);
+    executor =
+        concurrency > 1
+            ? Executors.newFixedThreadPool(context.getMaxConcurrentTasks() * concurrency)
+            : null;
+  }
+
+  @OnStopped
+  public void closeConnectors() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+
+    connectors = null;
+    supportedLanguages = null;
+  }
+
+  @Override
+  public void onTrigger(final ProcessContext context, final ProcessSession session)
+      throws ProcessException {
+    FlowFile flowFile = session.get();
+    if (flowFile == null) {
+      return;
+    }
+
+    String src =
+        context
+            .getProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE)
+            .evaluateAttributeExpressions(flowFile)
+            .getValue();
+    String tgt =
+        context
+            .getProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE)
+            .evaluateAttributeExpressions(flowFile)
+            .getValue();
+
+    RecordReaderFactory readerFactory =
+        context.getProperty(PROP_RECORD_READER).asControllerService(RecordReaderFactory.class);
+    RecordSetWriterFactory writerFactory =
+        context.getProperty(PROP_RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
+
+    FlowFile original = flowFile;
+    Map<String, String> attributes = original.getAttributes();
+    TranslationStats stats = new TranslationStats();
+    Map<String, String> results = new HashMap<>();
+    AtomicReference<String> mimeType = new AtomicReference<>();
+
+    FlowFile translated;
+    try {
+      translated =
+          session.write(
+              original,
+              (in, out) -> {
+                try (RecordReader reader =
+                    readerFactory.createRecordReader(original, in, getLogger())) {
+                  RecordSchema schema = writerFactory.getSchema(attributes, reader.getSchema());
+                  try (RecordSetWriter writer =
+                      writerFactory.createWriter(getLogger(), schema, out, attributes)) {
+                    writer.beginRecordSet();
+
+                    List<Record> batch = new ArrayList<>(batchSize);
+                    Record record;
+                    while ((record = reader.nextRecord()) != null) {
+                      batch.add(record);
+                      if (batch.size() >= batchSize) {
+                        translateRecords(batch, src, tgt, stats);
+                        writeRecords(writer, batch);
+                      }
+                    }
+                    translateRecords(batch, src, tgt, stats);
+                    writeRecords(writer, batch);
+
+                    WriteResult writeResult = writer.finishRecordSet();
+                    if (writeResult != null) {
+                      results.putAll(writeResult.getAttributes());
+                    }
+                    mimeType.set(writer.getMimeType());
+                  }
+                } catch (SchemaNotFoundException | MalformedRecordException e) {
+                  throw new ProcessException("Unable to read records", e);
+                }
+              });
+    } catch (ProcessException pe) {
+      Throwable cause = pe.getCause() == null ? pe : pe.getCause();
+      LOGGER.warn("Unable to translate records", pe);
+      session.adjustCounter(
+          MachineTranslationProcessor.COUNTER_ERRORS_PREFIX
+              + TranslationMetrics.errorCategory(cause),
+          1,
+          false);
+      session.transfer(flowFile, REL_FAILURE);
+      return;
+    }
+
+    long millis = TimeUnit.NANOSECONDS.toMillis(stats.nanos.sum());
+    session.adjustCounter(
+        MachineTranslationProcessor.COUNTER_CONNECTOR_CALLS, stats.calls.sum(), false);
+    session.adjustCounter(MachineTranslationProcessor.COUNTER_CONNECTOR_TIME, millis, false);
+    session.adjustCounter(COUNTER_RECORDS, stats.records.sum(), false);
+    session.adjustCounter(COUNTER_FIELDS, stats.fields.sum(), false);
+    session.adjustCounter(COUNTER_UNSUPPORTED, stats.unsupported.sum(), false);
+
+    results.put(ATTR_RECORD_COUNT, String.valueOf(stats.records.sum()));
+    results.put(ATTR_UNSUPPORTED_COUNT, String.valueOf(stats.unsupported.sum()));
+    if (mimeType.get() != null) {
+      results.put(CoreAttributes.MIME_TYPE.key(), mimeType.get());
+    }
+    results.put(MachineTranslationProcessor.ATTR_DURATION, String.valueOf(millis));
+    translated = session.putAllAttributes(translated, results);
+
+    session.transfer(translated, REL_SUCCESS);
+  }
+
+  /**
+   * Translates the selected fields of a batch of records in place. Fields are submitted to the
+   * executor (if configured) so that they can be translated concurrently, and identical values
+   * within a batch are only translated once. Records whose languages aren't supported by the
+   * connector are left untranslated, as are fields which aren't strings, as writing text into them
+   * would change the type of the field.
+   */
+  private void translateRecords(
+      List<Record> records, String src, String tgt, TranslationStats stats) {
+    Executor ex = executor == null ? Runnable::run : executor;
+
+    Map<String, CompletableFuture<String>> translations = new HashMap<>();
+    List<PendingField> pending = new ArrayList<>();
+    for (Record record : records) {
+      String recordSrc = sourceLanguage(record, src);
+      if (!isSupported(recordSrc, tgt)) {
+        stats.unsupported.increment();
+        continue;
+      }
+
+      for (RecordPath path : fieldPaths) {
+        path.evaluate(record)
+            .getSelectedFields()
+            .forEach(
+                field -> {
+                  Object value = field.getValue();
+                  if (field.getField().getDataType().getFieldType() != RecordFieldType.STRING
+                      || !(value instanceof String)
+                      || ((String) value).trim().isEmpty()) {
+                    return;
+                  }
+
+                  String content = (String) value;
+                  CompletableFuture<String> translation =
+                      translations.computeIfAbsent(
+                          TranslationCache.key(recordSrc, tgt, content),
+                          k ->
+                              CompletableFuture.supplyAsync(
+                                  () -> translate(recordSrc, tgt, content, stats), ex));
+                  pending.add(new PendingField(field, translation));
+                });
+      }
+    }
+
+    try {
+      for (PendingField p : pending) {
+        p.field.updateValue(p.translation.join());
+      }
+    } catch (CompletionException e) {
+      translations.values().forEach(f -> f.cancel(true));
+      throw new ProcessException("Translation failed", e.getCause());
+    }
+
+    stats.records.add(records.size());
+    stats.fields.add(pending.size());
+  }
+
+  /** Writes a batch of records, and then clears it so it can be reused */
+  private static void writeRecords(RecordSetWriter writer, List<Record> records)
+      throws IOException {
+    for (Record record : records) {
+      writer.write(record);
+    }
+    records.clear();
+  }
+
+  /**
+   * Returns the language to translate a record from, which is taken from the Source Language
+   * Field if it is set and has a value
+   */
+  private String sourceLanguage(Record record, String defaultLanguage) {
+    if (sourceLanguagePath == null) {
+      return defaultLanguage;
+    }
+
+    return sourceLanguagePath
+        .evaluate(record)
+        .getSelectedFields()
+        .map(FieldValue::getValue)
+        .filter(Objects::nonNull)
+        .map(Object::toString)
+        .filter(s -> !s.isEmpty())
+        .findFirst()
+        .orElse(defaultLanguage);
+  }
+
+  /**
+   * Returns true if the languages are supported, or if the connector doesn't provide supported
+   * languages
+   */
+  private boolean isSupported(String src, String tgt) {
+    SupportedLanguages supported = supportedLanguages;
+    return supported == null || supported.isSupported(src, tgt);
+  }
+
+  /** Translates content using a connector from the pool, recording the time spent translating */
+  private String translate(String src, String tgt, String content, TranslationStats stats) {
+    ConnectorPool pool = connectors;
+    try {
+      MTConnectorApi connector = pool.borrow();
+      long start = System.nanoTime();
+      try {
+        Translation t = connector.translate(src, tgt, content);
+        return t.getContent();
+      } finally {
+        stats.calls.increment();
+        stats.nanos.add(System.nanoTime() - start);
+        pool.release(connector);
+      }
+    } catch (ConnectorException ce) {
+      throw new CompletionException(ce);
+    }
+  }
+
+  /** A selected field, and its translation once it has been submitted */
+  private static class PendingField {
+    private final FieldValue field;
+    private final CompletableFuture<String> translation;
+
+    private PendingField(FieldValue field, CompletableFuture<String> translation) {
+      this.field = field;
+      this.translation = translation;
+    }
+  }
+
+  /** Totals for the records in a FlowFile, which may be updated from any thread */
+  private static class TranslationStats {
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder fields = new LongAdder();
+    private final LongAdder unsupported = new LongAdder();
+  }
+}
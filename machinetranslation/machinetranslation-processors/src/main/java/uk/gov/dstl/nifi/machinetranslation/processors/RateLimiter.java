@@ -0,0 +1,69 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the rate at which translations are sent to the connector, shared by all
+ * threads. Up to a second's worth of unused permits can accumulate, allowing short bursts. Callers
+ * which find the bucket empty reserve a permit and wait for it, so they are served in order.
+ */
+public class RateLimiter {
+  private final double permitsPerNano;
+  private final double capacity;
+
+  private double permits;
+  private long refilled;
+
+  /**
+   * Create a new rate limiter, which starts full
+   *
+   * @param permitsPerSecond The sustained rate at which permits are issued
+   */
+  public RateLimiter(double permitsPerSecond) {
+    if (!(permitsPerSecond > 0)) {
+      throw new IllegalArgumentException("Rate must be positive");
+    }
+
+    this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+    this.capacity = Math.max(1.0, permitsPerSecond);
+    this.permits = capacity;
+    this.refilled = System.nanoTime();
+  }
+
+  /** Takes a permit, waiting until one is available if necessary */
+  public void acquire() throws InterruptedException {
+    long wait;
+    synchronized (this) {
+      long now = System.nanoTime();
+      permits = Math.min(capacity, permits + (now - refilled) * permitsPerNano);
+      refilled = now;
+
+      permits -= 1.0;
+      wait = permits >= 0 ? 0 : (long) Math.ceil(-permits / permitsPerNano);
+    }
+
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+}
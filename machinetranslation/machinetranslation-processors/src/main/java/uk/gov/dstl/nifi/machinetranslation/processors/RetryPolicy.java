@@ -0,0 +1,135 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a failed translation should be retried, and how long to wait before doing so.
+ * Errors are retryable if they, or any of their causes, are a network timeout or connection
+ * failure, or have a message matching the retryable error pattern (for instance a rate limit
+ * reported by the engine). Delays grow exponentially with each attempt, up to a maximum, and are
+ * jittered so that concurrent retries don't all hit the engine at the same moment. The total delay
+ * across all retries is also limited, as retries wait on the thread which made the call.
+ */
+public class RetryPolicy {
+  private final int maxRetries;
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+  private final long maxTotalDelayMillis;
+  private final Pattern retryableErrors;
+
+  /**
+   * Create a new policy
+   *
+   * @param maxRetries The number of times to retry a failed translation
+   * @param initialDelayMillis The delay before the first retry
+   * @param maxDelayMillis The maximum delay before any retry
+   * @param retryableErrors Errors with messages containing a match for this pattern are retryable,
+   *     or null if only network errors are retryable
+   */
+  public RetryPolicy(
+      int maxRetries, long initialDelayMillis, long maxDelayMillis, Pattern retryableErrors) {
+    this(maxRetries, initialDelayMillis, maxDelayMillis, Long.MAX_VALUE, retryableErrors);
+  }
+
+  /**
+   * Create a new policy which limits the total delay across all retries
+   *
+   * @param maxRetries The number of times to retry a failed translation
+   * @param initialDelayMillis The delay before the first retry
+   * @param maxDelayMillis The maximum delay before any retry
+   * @param maxTotalDelayMillis The maximum total delay across all retries of a translation
+   * @param retryableErrors Errors with messages containing a match for this pattern are retryable,
+   *     or null if only network errors are retryable
+   */
+  public RetryPolicy(
+      int maxRetries,
+      long initialDelayMillis,
+      long maxDelayMillis,
+      long maxTotalDelayMillis,
+      Pattern retryableErrors) {
+    if (maxRetries < 0
+        || initialDelayMillis < 0
+        || maxDelayMillis < initialDelayMillis
+        || maxTotalDelayMillis < 0) {
+      throw new IllegalArgumentException("Invalid retry policy");
+    }
+
+    this.maxRetries = maxRetries;
+    this.initialDelayMillis = initialDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+    this.maxTotalDelayMillis = maxTotalDelayMillis;
+    this.retryableErrors = retryableErrors;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * Returns true if a call which has already been retried, and waited in total for the given
+   * delay, can be retried again after the next delay
+   *
+   * @param attempt The number of retries already made
+   * @param delayedMillis The total delay before the retries already made
+   * @param nextDelayMillis The delay before the next retry
+   */
+  public boolean canRetry(int attempt, long delayedMillis, long nextDelayMillis) {
+    return attempt < maxRetries && delayedMillis + nextDelayMillis <= maxTotalDelayMillis;
+  }
+
+  /** Returns true if the error, or any of its causes, is retryable */
+  public boolean isRetryable(Throwable error) {
+    for (Throwable t = error; t != null; t = t.getCause()) {
+      if (t instanceof InterruptedIOException || t instanceof SocketException) {
+        return true;
+      }
+
+      if (retryableErrors != null
+          && t.getMessage() != null
+          && retryableErrors.matcher(t.getMessage()).find()) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the delay before a retry, which is between half and all of the initial delay doubled
+   * for each previous attempt, capped at the maximum delay
+   *
+   * @param attempt The number of retries already made
+   */
+  public long delayMillis(int attempt) {
+    long delay = maxDelayMillis;
+    if (attempt < Long.numberOfLeadingZeros(initialDelayMillis) - 1) {
+      delay = Math.min(maxDelayMillis, initialDelayMillis << attempt);
+    }
+
+    long half = delay / 2;
+    return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+  }
+}
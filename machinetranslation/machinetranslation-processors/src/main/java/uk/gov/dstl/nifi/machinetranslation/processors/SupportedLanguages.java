@@ -0,0 +1,72 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import uk.gov.dstl.machinetranslation.connector.api.LanguagePair;
+import uk.gov.dstl.machinetranslation.connector.api.utils.ConnectorUtils;
+
+/**
+ * Immutable index of the language pairs supported by a connector, so that a pair can be checked
+ * without searching through every supported pair.
+ */
+public class SupportedLanguages {
+  private final Map<String, Set<String>> targetsBySource = new HashMap<>();
+  private final Set<String> targets = new HashSet<>();
+
+  /**
+   * Create a new index
+   *
+   * @param languagePairs The language pairs supported by the connector
+   */
+  public SupportedLanguages(Collection<LanguagePair> languagePairs) {
+    for (LanguagePair lp : languagePairs) {
+      targetsBySource
+          .computeIfAbsent(lp.getSourceLanguage(), k -> new HashSet<>())
+          .add(lp.getTargetLanguage());
+      targets.add(lp.getTargetLanguage());
+    }
+  }
+
+  /**
+   * Returns true if the language pair is supported. If the source language is {@link
+   * ConnectorUtils#LANGUAGE_AUTO}, then any supported pair with the target language is sufficient.
+   */
+  public boolean isSupported(String sourceLanguage, String targetLanguage) {
+    if (ConnectorUtils.LANGUAGE_AUTO.equals(sourceLanguage)) {
+      return targets.contains(targetLanguage);
+    }
+
+    return targetsBySource
+        .getOrDefault(sourceLanguage, Collections.emptySet())
+        .contains(targetLanguage);
+  }
+
+  /** Returns the number of supported language pairs */
+  public int size() {
+    return targetsBySource.values().stream().mapToInt(Set::size).sum();
+  }
+}
@@ -0,0 +1,107 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.BreakIterator;
+import java.util.Locale;
+
+/**
+ * Splits text from a Reader into segments of no more than a maximum number of characters. Where
+ * possible, text is split between paragraphs, then between sentences, then between words. No
+ * characters are added or removed, so concatenating the segments gives the original text.
+ *
+ * <p>Only the maximum number of characters is held in memory at any time, regardless of the
+ * length of the text.
+ */
+public class TextSegmenter {
+  private final Reader reader;
+  private final char[] buffer;
+  private final BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.ROOT);
+
+  private int length = 0;
+  private boolean eof = false;
+
+  /**
+   * Create a new segmenter
+   *
+   * @param reader The text to segment
+   * @param maxChars The maximum number of characters in a segment
+   */
+  public TextSegmenter(Reader reader, int maxChars) {
+    if (maxChars < 2) {
+      throw new IllegalArgumentException("Segments must be at least 2 characters");
+    }
+
+    this.reader = reader;
+    this.buffer = new char[maxChars];
+  }
+
+  /** Returns the next segment, or null if there is no more text */
+  public String next() throws IOException {
+    while (!eof && length < buffer.length) {
+      int read = reader.read(buffer, length, buffer.length - length);
+      if (read < 0) {
+        eof = true;
+      } else {
+        length += read;
+      }
+    }
+
+    if (length == 0) {
+      return null;
+    }
+
+    int end = eof ? length : findBreak();
+    String segment = new String(buffer, 0, end);
+
+    System.arraycopy(buffer, end, buffer, 0, length - end);
+    length -= end;
+
+    return segment;
+  }
+
+  /** Finds the best place to split the buffer, which is the index of the first character after */
+  private int findBreak() {
+    String text = new String(buffer, 0, length);
+
+    int paragraph = text.lastIndexOf("\n\n");
+    if (paragraph > 0) {
+      return paragraph + 2;
+    }
+
+    sentences.setText(text);
+    int sentence = sentences.preceding(length);
+    if (sentence > 0) {
+      return sentence;
+    }
+
+    for (int i = length - 1; i > 0; i--) {
+      if (Character.isWhitespace(buffer[i])) {
+        return i + 1;
+      }
+    }
+
+    // No natural break, but avoid splitting a surrogate pair
+    return Character.isHighSurrogate(buffer[length - 1]) ? length - 1 : length;
+  }
+}
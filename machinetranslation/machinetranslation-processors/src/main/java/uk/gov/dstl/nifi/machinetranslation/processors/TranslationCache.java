@@ -0,0 +1,146 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import uk.gov.dstl.machinetranslation.connector.api.Translation;
+
+/**
+ * In-memory cache of translations, bounded by both the number of entries and their approximate
+ * size in bytes. When either bound is exceeded, the least recently used entries are evicted.
+ * Entries also expire a fixed time after they were added.
+ */
+public class TranslationCache {
+  private final int maxEntries;
+  private final long maxBytes;
+  private final long ttlNanos;
+
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes = 0;
+
+  /**
+   * Create a new cache
+   *
+   * @param maxEntries The maximum number of translations to hold
+   * @param maxBytes The maximum approximate size of the cached translations
+   * @param ttlNanos How long a translation is held for, in nanoseconds
+   */
+  public TranslationCache(int maxEntries, long maxBytes, long ttlNanos) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.ttlNanos = ttlNanos;
+  }
+
+  /**
+   * Creates a cache key from the languages and a SHA-256 hash of the content, so that the cache
+   * doesn't need to hold the original content
+   */
+  public static String key(String sourceLanguage, String targetLanguage, String content) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // All Java implementations are required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+
+    return sourceLanguage
+        + ':'
+        + targetLanguage
+        + ':'
+        + Base64.getEncoder()
+            .encodeToString(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /** Returns the cached translation, or null if there isn't one or it has expired */
+  public synchronized Translation get(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+
+    if (System.nanoTime() - entry.created > ttlNanos) {
+      entries.remove(key);
+      bytes -= entry.bytes;
+      return null;
+    }
+
+    return entry.translation;
+  }
+
+  /**
+   * Adds a translation to the cache, evicting older entries as required
+   *
+   * @return The number of entries which were evicted
+   */
+  public synchronized int put(String key, Translation translation) {
+    Entry entry = new Entry(translation, sizeOf(key, translation), System.nanoTime());
+
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      bytes -= previous.bytes;
+    }
+    bytes += entry.bytes;
+
+    int evicted = 0;
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+      bytes -= iterator.next().getValue().bytes;
+      iterator.remove();
+      evicted++;
+    }
+
+    return evicted;
+  }
+
+  /** Returns the number of translations currently held */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Estimates the size of an entry, assuming 2 bytes per character */
+  private static long sizeOf(String key, Translation translation) {
+    long size = key.length();
+    if (translation.getContent() != null) {
+      size += translation.getContent().length();
+    }
+
+    return size * 2;
+  }
+
+  private static class Entry {
+    private final Translation translation;
+    private final long bytes;
+    private final long created;
+
+    private Entry(Translation translation, long bytes, long created) {
+      this.translation = translation;
+      this.bytes = bytes;
+      this.created = created;
+    }
+  }
+}
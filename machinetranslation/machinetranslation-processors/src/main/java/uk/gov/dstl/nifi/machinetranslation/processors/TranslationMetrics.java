@@ -0,0 +1,146 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import uk.gov.dstl.machinetranslation.connector.api.exceptions.ConnectorException;
+
+/**
+ * Metrics for calls to the connector, shared by all concurrent tasks of a processor. These can be
+ * published through JMX, so that they can be collected by external monitoring.
+ */
+public class TranslationMetrics implements TranslationMetricsMBean {
+  public static final String ERROR_CONNECTOR = "Connector";
+  public static final String ERROR_UNEXPECTED = "Unexpected";
+
+  private final LongAdder translations = new LongAdder();
+  private final LongAdder bytesSent = new LongAdder();
+  private final LongAdder bytesReceived = new LongAdder();
+  private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LatencyHistogram connectorWait = new LatencyHistogram();
+  private final LatencyHistogram queueWait = new LatencyHistogram();
+
+  /** Records a call to the connector, and how long was spent waiting for a connector first */
+  public void recordTranslation(long waitNanos, long latencyNanos) {
+    translations.increment();
+    connectorWait.record(waitNanos);
+    latency.record(latencyNanos);
+  }
+
+  /** Records the size of content sent for translation, and of the translation */
+  public void recordBytes(long sent, long received) {
+    bytesSent.add(sent);
+    bytesReceived.add(received);
+  }
+
+  /** Records how long a Flow File waited in the incoming queue before being processed */
+  public void recordQueueWait(long nanos) {
+    queueWait.record(nanos);
+  }
+
+  /** Records an error, in one of the categories defined by this class */
+  public void recordError(String category) {
+    errors.computeIfAbsent(category, k -> new LongAdder()).increment();
+  }
+
+  /** Returns the error category for an exception thrown while translating */
+  public static String errorCategory(Throwable t) {
+    return t instanceof ConnectorException ? ERROR_CONNECTOR : ERROR_UNEXPECTED;
+  }
+
+  @Override
+  public long getTranslations() {
+    return translations.sum();
+  }
+
+  @Override
+  public long getBytesSent() {
+    return bytesSent.sum();
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return bytesReceived.sum();
+  }
+
+  @Override
+  public long getConnectorErrors() {
+    return errors(ERROR_CONNECTOR);
+  }
+
+  @Override
+  public long getUnexpectedErrors() {
+    return errors(ERROR_UNEXPECTED);
+  }
+
+  @Override
+  public double getLatencyP50Millis() {
+    return millis(latency.percentile(50));
+  }
+
+  @Override
+  public double getLatencyP99Millis() {
+    return millis(latency.percentile(99));
+  }
+
+  @Override
+  public double getConnectorWaitP50Millis() {
+    return millis(connectorWait.percentile(50));
+  }
+
+  @Override
+  public double getConnectorWaitP99Millis() {
+    return millis(connectorWait.percentile(99));
+  }
+
+  @Override
+  public double getQueueWaitP50Millis() {
+    return millis(queueWait.percentile(50));
+  }
+
+  @Override
+  public double getQueueWaitP99Millis() {
+    return millis(queueWait.percentile(99));
+  }
+
+  @Override
+  public void reset() {
+    translations.reset();
+    bytesSent.reset();
+    bytesReceived.reset();
+    errors.clear();
+    latency.reset();
+    connectorWait.reset();
+    queueWait.reset();
+  }
+
+  private long errors(String category) {
+    LongAdder adder = errors.get(category);
+    return adder == null ? 0 : adder.sum();
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+}
@@ -0,0 +1,48 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/** JMX interface for {@link TranslationMetrics} */
+public interface TranslationMetricsMBean {
+  long getTranslations();
+
+  long getBytesSent();
+
+  long getBytesReceived();
+
+  long getConnectorErrors();
+
+  long getUnexpectedErrors();
+
+  double getLatencyP50Millis();
+
+  double getLatencyP99Millis();
+
+  double getConnectorWaitP50Millis();
+
+  double getConnectorWaitP99Millis();
+
+  double getQueueWaitP50Millis();
+
+  double getQueueWaitP99Millis();
+
+  void reset();
+}
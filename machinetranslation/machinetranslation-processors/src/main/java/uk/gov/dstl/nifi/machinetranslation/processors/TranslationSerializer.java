@@ -0,0 +1,72 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.IOUtils;
+import org.apache.nifi.distributed.cache.client.Deserializer;
+import org.apache.nifi.distributed.cache.client.Serializer;
+import org.apache.nifi.distributed.cache.client.exception.DeserializationException;
+import uk.gov.dstl.machinetranslation.connector.api.Translation;
+
+/**
+ * Compact binary serialization of a Translation, for storing in a distributed cache. The format is
+ * a version byte, followed by the source language (or an empty string if it is null) as modified
+ * UTF-8, followed by the translated content as UTF-8 up to the end of the data.
+ */
+public class TranslationSerializer implements Serializer<Translation>, Deserializer<Translation> {
+  private static final byte VERSION = 1;
+
+  @Override
+  public void serialize(Translation translation, OutputStream output) throws IOException {
+    DataOutputStream dos = new DataOutputStream(output);
+    dos.writeByte(VERSION);
+    dos.writeUTF(translation.getSourceLanguage() == null ? "" : translation.getSourceLanguage());
+    if (translation.getContent() != null) {
+      dos.write(translation.getContent().getBytes(StandardCharsets.UTF_8));
+    }
+    dos.flush();
+  }
+
+  @Override
+  public Translation deserialize(byte[] input) throws DeserializationException, IOException {
+    // Cache clients return null or empty data if the key isn't present
+    if (input == null || input.length == 0) {
+      return null;
+    }
+
+    DataInputStream dis = new DataInputStream(new ByteArrayInputStream(input));
+    byte version = dis.readByte();
+    if (version != VERSION) {
+      throw new DeserializationException("Unsupported serialization version " + version);
+    }
+
+    String sourceLanguage = dis.readUTF();
+    String content = IOUtils.toString(dis, StandardCharsets.UTF_8);
+
+    return new Translation(sourceLanguage.isEmpty() ? null : sourceLanguage, content);
+  }
+}
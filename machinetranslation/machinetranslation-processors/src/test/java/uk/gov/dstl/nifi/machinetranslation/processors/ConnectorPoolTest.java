@@ -0,0 +1,68 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import org.junit.Test;
+import uk.gov.dstl.machinetranslation.connector.api.MTConnectorApi;
+import uk.gov.dstl.machinetranslation.connector.api.exceptions.ConnectorException;
+
+public class ConnectorPoolTest {
+
+  @Test
+  public void testBorrowRelease() throws ConnectorException {
+    TestConnector a = new TestConnector();
+    TestConnector b = new TestConnector();
+    ConnectorPool pool = new ConnectorPool(List.of(a, b));
+
+    assertEquals(2, pool.available());
+
+    MTConnectorApi first = pool.borrow();
+    MTConnectorApi second = pool.borrow();
+    assertNotSame(first, second);
+    assertEquals(0, pool.available());
+
+    pool.release(first);
+    assertEquals(1, pool.available());
+    assertSame(first, pool.borrow());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmpty() {
+    new ConnectorPool(List.of());
+  }
+
+  @Test
+  public void testInterrupted() throws ConnectorException {
+    ConnectorPool pool = new ConnectorPool(List.of(new TestConnector()));
+    pool.borrow();
+
+    Thread.currentThread().interrupt();
+    try {
+      pool.borrow();
+      fail("Expected ConnectorException");
+    } catch (ConnectorException e) {
+      assertTrue(Thread.interrupted());
+    }
+  }
+}
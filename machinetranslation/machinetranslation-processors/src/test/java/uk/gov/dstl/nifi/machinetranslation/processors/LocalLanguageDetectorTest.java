@@ -0,0 +1,67 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import org.junit.Test;
+
+public class LocalLanguageDetectorTest {
+
+  private final LocalLanguageDetector detector = new LocalLanguageDetector();
+
+  @Test
+  public void testLanguages() {
+    assertTrue(detector.getLanguages().containsAll(List.of("en", "fr", "de")));
+  }
+
+  @Test
+  public void testDetect() {
+    assertLanguage(
+        "en",
+        "All human beings are born free and equal in dignity and rights. They are endowed with reason and conscience and should act towards one another in a spirit of brotherhood.");
+    assertLanguage(
+        "fr",
+        "Tous les êtres humains naissent libres et égaux en dignité et en droits. Ils sont doués de raison et de conscience et doivent agir les uns envers les autres dans un esprit de fraternité.");
+    assertLanguage(
+        "de",
+        "Alle Menschen sind frei und gleich an Würde und Rechten geboren. Sie sind mit Vernunft und Gewissen begabt und sollen einander im Geist der Brüderlichkeit begegnen.");
+    assertLanguage(
+        "es",
+        "Todos los seres humanos nacen libres e iguales en dignidad y derechos y, dotados como están de razón y conciencia, deben comportarse fraternalmente los unos con los otros.");
+  }
+
+  @Test
+  public void testNotEnoughMatches() {
+    assertNull(detector.detect("Hello world"));
+    assertNull(detector.detect(""));
+  }
+
+  private void assertLanguage(String expected, String content) {
+    DetectedLanguage detected = detector.detect(content);
+
+    assertNotNull(detected);
+    assertEquals(expected, detected.getLanguage());
+    assertTrue(detected.getConfidence() > 0.5);
+    assertTrue(detected.getConfidence() <= 1.0);
+  }
+}
@@ -20,10 +20,24 @@ package uk.gov.dstl.nifi.machinetranslation.processors;
  * #L%
  */
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import org.apache.commons.io.IOUtils;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import org.junit.Before;
@@ -154,4 +168,618 @@ public class MachineTranslationProcessorTest {
     testRunner.assertTransferCount(MachineTranslationProcessor.REL_SUCCESS.getName(), 1);
     testRunner.assertTransferCount(MachineTranslationProcessor.REL_FAILURE.getName(), 0);
   }
+
+  @Test
+  public void testMultipleFlowFilesPerTrigger() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "${lang}");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_SIZE.getName(), "5");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_CONCURRENCY.getName(), "2");
+
+    testRunner.enqueue(
+        IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8), Map.of("lang", "fr"));
+    testRunner.enqueue(
+        IOUtils.toInputStream("Hallo Welt", StandardCharsets.UTF_8), Map.of("lang", "de"));
+    testRunner.enqueue(
+        IOUtils.toInputStream("Bonjour encore", StandardCharsets.UTF_8), Map.of("lang", "fr"));
+
+    testRunner.run();
+
+    testRunner.assertQueueEmpty();
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 3);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS)
+        .forEach(ff -> ff.assertContentEquals("Hello world"));
+  }
+
+  @Test
+  public void testConnectorPoolSize() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_SIZE.getName(), "5");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_CONCURRENCY.getName(), "4");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_CONNECTOR_POOL_SIZE.getName(), "1");
+    for (int i = 0; i < 5; i++) {
+      testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde " + i, StandardCharsets.UTF_8));
+    }
+
+    testRunner.run();
+
+    testRunner.assertQueueEmpty();
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 5);
+  }
+
+  @Test
+  public void testNotSupportedLanguageExpression() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "${lang}");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_SIZE.getName(), "5");
+    testRunner.enqueue(
+        IOUtils.toInputStream("Ciao mondo", StandardCharsets.UTF_8), Map.of("lang", "it"));
+    testRunner.enqueue(
+        IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8), Map.of("lang", "fr"));
+
+    testRunner.run();
+
+    testRunner.assertTransferCount(MachineTranslationProcessor.REL_SUCCESS.getName(), 1);
+    testRunner.assertTransferCount(MachineTranslationProcessor.REL_UNSUPPORTED.getName(), 1);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationProcessor.REL_UNSUPPORTED)
+        .get(0)
+        .assertContentEquals("Ciao mondo");
+  }
+
+  @Test
+  public void testDetectionConnector() {
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), ConnectorUtils.LANGUAGE_AUTO);
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_DETECTION.getName(),
+        MachineTranslationProcessor.DETECTION_CONNECTOR.getValue());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_SIZE.getName(), "5");
+    testRunner.enqueue(IOUtils.toInputStream("Hello world", StandardCharsets.UTF_8));
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    testRunner.assertTransferCount(MachineTranslationProcessor.REL_SKIPPED.getName(), 1);
+    testRunner.assertTransferCount(MachineTranslationProcessor.REL_SUCCESS.getName(), 1);
+    assertEquals(
+        Long.valueOf(1), testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_SKIPPED));
+
+    MockFlowFile skipped =
+        testRunner.getFlowFilesForRelationship(MachineTranslationProcessor.REL_SKIPPED).get(0);
+    skipped.assertContentEquals("Hello world");
+    skipped.assertAttributeEquals(MachineTranslationProcessor.ATTR_DETECTED_LANGUAGE, "en");
+    skipped.assertAttributeEquals(MachineTranslationProcessor.ATTR_DETECTED_CONFIDENCE, "0.95");
+
+    MockFlowFile translated =
+        testRunner.getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS).get(0);
+    translated.assertAttributeEquals(MachineTranslationProcessor.ATTR_DETECTED_LANGUAGE, "fr");
+  }
+
+  @Test
+  public void testDetectionRegionalTarget() {
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), ConnectorUtils.LANGUAGE_AUTO);
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en_GB");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_DETECTION.getName(),
+        MachineTranslationProcessor.DETECTION_CONNECTOR.getValue());
+    testRunner.enqueue(IOUtils.toInputStream("Hello world", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SKIPPED.getName(), 1);
+  }
+
+  @Test
+  public void testDetectionConnectorExplicitSource() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_DETECTION.getName(),
+        MachineTranslationProcessor.DETECTION_CONNECTOR.getValue());
+    testRunner.enqueue(IOUtils.toInputStream("Hello world", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    // The source language is already known, so the connector isn't asked to identify it
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 1);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS)
+        .get(0)
+        .assertAttributeNotExists(MachineTranslationProcessor.ATTR_DETECTED_LANGUAGE);
+  }
+
+  @Test
+  public void testPrimaryLanguage() {
+    assertEquals("en", MachineTranslationProcessor.primaryLanguage("en"));
+    assertEquals("en", MachineTranslationProcessor.primaryLanguage("en-GB"));
+    assertEquals("en", MachineTranslationProcessor.primaryLanguage("EN_us"));
+    assertEquals("zh", MachineTranslationProcessor.primaryLanguage("zh-Hant-TW"));
+  }
+
+  @Test
+  public void testDetectionLocal() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_DETECTION.getName(),
+        MachineTranslationProcessor.DETECTION_LOCAL.getValue());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_SIZE.getName(), "5");
+    testRunner.enqueue(
+        IOUtils.toInputStream(
+            "All human beings are born free and equal in dignity and rights. They are endowed with reason and conscience and should act towards one another in a spirit of brotherhood.",
+            StandardCharsets.UTF_8));
+    testRunner.enqueue(
+        IOUtils.toInputStream(
+            "Tous les êtres humains naissent libres et égaux en dignité et en droits. Ils sont doués de raison et de conscience et doivent agir les uns envers les autres dans un esprit de fraternité.",
+            StandardCharsets.UTF_8));
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    testRunner.assertTransferCount(MachineTranslationProcessor.REL_SKIPPED.getName(), 1);
+    testRunner.assertTransferCount(MachineTranslationProcessor.REL_SUCCESS.getName(), 2);
+
+    List<MockFlowFile> translated =
+        testRunner.getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS);
+    translated
+        .get(0)
+        .assertAttributeEquals(MachineTranslationProcessor.ATTR_DETECTED_LANGUAGE, "fr");
+    translated.get(1).assertAttributeNotExists(MachineTranslationProcessor.ATTR_DETECTED_LANGUAGE);
+  }
+
+  @Test
+  public void testFailingMultipleFlowFilesPerTrigger() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), FailingTestConnector.class.getName());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_SIZE.getName(), "5");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_CONCURRENCY.getName(), "2");
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour encore", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_FAILURE.getName(), 2);
+  }
+
+  @Test
+  public void testCache() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_CACHE_MAX_ENTRIES.getName(), "10");
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour encore", StandardCharsets.UTF_8));
+
+    testRunner.run(3);
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 3);
+    List<MockFlowFile> flowFiles =
+        testRunner.getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS);
+    flowFiles.get(0).assertAttributeEquals(MachineTranslationProcessor.ATTR_CACHE_HIT, "false");
+    flowFiles.get(1).assertAttributeEquals(MachineTranslationProcessor.ATTR_CACHE_HIT, "true");
+    flowFiles.get(1).assertContentEquals("Hello world");
+    flowFiles.get(2).assertAttributeEquals(MachineTranslationProcessor.ATTR_CACHE_HIT, "false");
+
+    assertEquals(
+        Long.valueOf(1),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_CACHE_HITS));
+    assertEquals(
+        Long.valueOf(2),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_CACHE_MISSES));
+  }
+
+  @Test
+  public void testCoalesce() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_SIZE.getName(), "4");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_CONCURRENCY.getName(), "2");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_COALESCE.getName(), "true");
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour encore", StandardCharsets.UTF_8));
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 4);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS)
+        .forEach(ff -> ff.assertContentEquals("Hello world"));
+
+    assertEquals(
+        Long.valueOf(2),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_CONNECTOR_CALLS));
+    assertEquals(
+        Long.valueOf(2), testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_COALESCED));
+  }
+
+  @Test
+  public void testCoalesceDisabled() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_SIZE.getName(), "2");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_COALESCE.getName(), "false");
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 2);
+    assertEquals(
+        Long.valueOf(2),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_CONNECTOR_CALLS));
+    assertNull(testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_COALESCED));
+  }
+
+  @Test
+  public void testDistributedCacheConnectorConfig()
+      throws InitializationException, InterruptedException {
+    TestDistributedMapCacheClient cacheClient = new TestDistributedMapCacheClient();
+    testRunner.addControllerService("cache", cacheClient);
+    testRunner.enableControllerService(cacheClient);
+
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR_CONFIG.getName(), "{\"model\": \"a\"}");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_DISTRIBUTED_CACHE.getName(), "cache");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_DISTRIBUTED_CACHE_TIMEOUT.getName(), "5 secs");
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    // Wait for the translation to be added to the cache in the background
+    for (int i = 0; i < 100 && cacheClient.size() == 0; i++) {
+      Thread.sleep(10);
+    }
+
+    // Translations from a differently configured connector shouldn't be shared
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR_CONFIG.getName(), "{\"model\": \"b\"}");
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 2);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS)
+        .get(1)
+        .assertAttributeEquals(MachineTranslationProcessor.ATTR_CACHE_HIT, "false");
+  }
+
+  @Test
+  public void testDistributedCache() throws InitializationException, InterruptedException {
+    TestDistributedMapCacheClient cacheClient = new TestDistributedMapCacheClient();
+    testRunner.addControllerService("cache", cacheClient);
+    testRunner.enableControllerService(cacheClient);
+
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_DISTRIBUTED_CACHE.getName(), "cache");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_DISTRIBUTED_CACHE_TIMEOUT.getName(), "5 secs");
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    // Wait for the translation to be added to the cache in the background
+    for (int i = 0; i < 100 && cacheClient.size() == 0; i++) {
+      Thread.sleep(10);
+    }
+
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 2);
+    List<MockFlowFile> flowFiles =
+        testRunner.getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS);
+    flowFiles.get(0).assertAttributeEquals(MachineTranslationProcessor.ATTR_CACHE_HIT, "false");
+    flowFiles.get(1).assertAttributeEquals(MachineTranslationProcessor.ATTR_CACHE_HIT, "true");
+    flowFiles.get(1).assertContentEquals("Hello world");
+
+    assertEquals(
+        Long.valueOf(1),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_DISTRIBUTED_CACHE_HITS));
+  }
+
+  @Test
+  public void testSegmented() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SEGMENT_SIZE.getName(), "10");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_BATCH_CONCURRENCY.getName(), "2");
+    testRunner.enqueue(
+        IOUtils.toInputStream("Bonjour. Salut.\n\nBonjour le monde.", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 1);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS)
+        .get(0)
+        .assertContentEquals("Hello world Hello world\n\nHello world Hello world");
+  }
+
+  @Test
+  public void testSegmentThreshold() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_CACHE_MAX_ENTRIES.getName(), "10");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SEGMENT_THRESHOLD.getName(), "10 B");
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+
+    testRunner.run(2);
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 2);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS)
+        .forEach(f -> f.assertContentEquals("Hello world"));
+
+    // The content is over the threshold, so is segmented rather than cached
+    assertNull(testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_CACHE_HITS));
+    assertEquals(
+        Long.valueOf(2),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_CONNECTOR_CALLS));
+  }
+
+  @Test
+  public void testMultibyteContent() {
+    String content =
+        String.join("", Collections.nCopies(1000, "Ça va? Grüße aus Köln. 你好，世界 😀\n"));
+
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), EchoTestConnector.class.getName());
+    testRunner.enqueue(content.getBytes(StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 1);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS)
+        .get(0)
+        .assertContentEquals(content, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testCharacterSets() {
+    String content = "Привет, мир";
+
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), EchoTestConnector.class.getName());
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_INPUT_CHARSET.getName(), "${mime.charset}");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_OUTPUT_CHARSET.getName(), "UTF-16LE");
+    testRunner.enqueue(
+        content.getBytes(Charset.forName("KOI8-R")), Map.of("mime.charset", "KOI8-R"));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 1);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS)
+        .get(0)
+        .assertContentEquals(content.getBytes(StandardCharsets.UTF_16LE));
+  }
+
+  @Test
+  public void testSegmentedCharacterSets() {
+    String content = "Привет, мир. Как дела?";
+
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), EchoTestConnector.class.getName());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SEGMENT_SIZE.getName(), "15");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_INPUT_CHARSET.getName(), "windows-1251");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_OUTPUT_CHARSET.getName(), "UTF-16BE");
+    testRunner.enqueue(content.getBytes(Charset.forName("windows-1251")));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 1);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS)
+        .get(0)
+        .assertContentEquals(content.getBytes(StandardCharsets.UTF_16BE));
+  }
+
+  @Test
+  public void testByteOrderMark() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), EchoTestConnector.class.getName());
+
+    // UTF-16 includes a byte order mark, which should override the default of UTF-8
+    testRunner.enqueue("Ça va?".getBytes(StandardCharsets.UTF_16));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 1);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS)
+        .get(0)
+        .assertContentEquals("Ça va?", StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testInvalidCharacterSet() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_INPUT_CHARSET.getName(), "${mime.charset}");
+    testRunner.enqueue("Bonjour le monde", Map.of("mime.charset", "not-a-charset"));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_FAILURE.getName(), 1);
+  }
+
+  @Test
+  public void testFailingSegmented() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), FailingTestConnector.class.getName());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SEGMENT_SIZE.getName(), "10");
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour. Salut.", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_FAILURE.getName(), 1);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationProcessor.REL_FAILURE)
+        .get(0)
+        .assertContentEquals("Bonjour. Salut.");
+  }
+
+  @Test
+  public void testMetrics() throws JMException {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), TestConnector.class.getName());
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_METRICS_SINK.getName(),
+        MachineTranslationProcessor.METRICS_JMX.getValue());
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+
+    testRunner.run(1, false, true);
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name =
+        new ObjectName(
+            "uk.gov.dstl.nifi.machinetranslation:type=MachineTranslationProcessor,id="
+                + testRunner.getProcessor().getIdentifier());
+    assertEquals(1L, server.getAttribute(name, "Translations"));
+    assertEquals(16L, server.getAttribute(name, "BytesSent"));
+    assertEquals(11L, server.getAttribute(name, "BytesReceived"));
+    assertEquals(0L, server.getAttribute(name, "ConnectorErrors"));
+
+    testRunner.run(1, true, false);
+    assertFalse(server.isRegistered(name));
+
+    assertEquals(
+        Long.valueOf(1),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_CONNECTOR_CALLS));
+    assertEquals(
+        Long.valueOf(16),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_BYTES_SENT));
+    assertEquals(
+        Long.valueOf(11),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_BYTES_RECEIVED));
+
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationProcessor.REL_SUCCESS)
+        .get(0)
+        .assertAttributeExists(MachineTranslationProcessor.ATTR_DURATION);
+  }
+
+  @Test
+  public void testRetry() {
+    UnavailableTestConnector.FAILURES.set(2);
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(),
+        UnavailableTestConnector.class.getName());
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_RETRY_INITIAL_DELAY.getName(), "1 millis");
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_SUCCESS.getName(), 1);
+    assertEquals(
+        Long.valueOf(3),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_CONNECTOR_CALLS));
+  }
+
+  @Test
+  public void testRetriesExhausted() {
+    UnavailableTestConnector.FAILURES.set(10);
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(),
+        UnavailableTestConnector.class.getName());
+    testRunner.setProperty(MachineTranslationProcessor.PROP_MAX_RETRIES.getName(), "1");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_RETRY_INITIAL_DELAY.getName(), "1 millis");
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationProcessor.REL_RETRY.getName(), 1);
+    assertTrue(
+        testRunner
+            .getFlowFilesForRelationship(MachineTranslationProcessor.REL_RETRY)
+            .get(0)
+            .isPenalized());
+    assertEquals(
+        Long.valueOf(1),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_RETRIES_EXHAUSTED));
+  }
+
+  @Test
+  public void testMetricsFailure() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE.getName(), "fr");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE.getName(), "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR.getName(), FailingTestConnector.class.getName());
+    testRunner.enqueue(IOUtils.toInputStream("Bonjour le monde", StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    testRunner.assertTransferCount(MachineTranslationProcessor.REL_FAILURE.getName(), 1);
+    assertEquals(
+        Long.valueOf(1),
+        testRunner.getCounterValue(
+            MachineTranslationProcessor.COUNTER_ERRORS_PREFIX
+                + TranslationMetrics.ERROR_CONNECTOR));
+  }
 }
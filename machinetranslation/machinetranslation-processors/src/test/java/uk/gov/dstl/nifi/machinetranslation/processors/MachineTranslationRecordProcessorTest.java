@@ -0,0 +1,210 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.serialization.record.MockRecordParser;
+import org.apache.nifi.serialization.record.MockRecordWriter;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MachineTranslationRecordProcessorTest {
+
+  private TestRunner testRunner;
+  private MockRecordParser reader;
+
+  @Before
+  public void init() throws InitializationException {
+    testRunner = TestRunners.newTestRunner(MachineTranslationRecordProcessor.class);
+
+    reader = new MockRecordParser();
+    reader.addSchemaField("id", RecordFieldType.INT);
+    reader.addSchemaField("text", RecordFieldType.STRING);
+    reader.addSchemaField("lang", RecordFieldType.STRING);
+    testRunner.addControllerService("reader", reader);
+    testRunner.enableControllerService(reader);
+
+    MockRecordWriter writer = new MockRecordWriter("id,text,lang", false);
+    testRunner.addControllerService("writer", writer);
+    testRunner.enableControllerService(writer);
+
+    testRunner.setProperty(MachineTranslationRecordProcessor.PROP_RECORD_READER, "reader");
+    testRunner.setProperty(MachineTranslationRecordProcessor.PROP_RECORD_WRITER, "writer");
+    testRunner.setProperty(MachineTranslationRecordProcessor.PROP_FIELDS, "/text");
+    testRunner.setProperty(MachineTranslationProcessor.PROP_TARGET_LANGUAGE, "en");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR, TestConnector.class.getName());
+  }
+
+  @Test
+  public void testProcessor() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE, "fr");
+    reader.addRecord(1, "Bonjour le monde", "fr");
+    reader.addRecord(2, "", "fr");
+    testRunner.enqueue(new byte[0]);
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationRecordProcessor.REL_SUCCESS, 1);
+    MockFlowFile flowFile =
+        testRunner
+            .getFlowFilesForRelationship(MachineTranslationRecordProcessor.REL_SUCCESS)
+            .get(0);
+    flowFile.assertContentEquals("id,text,lang\n1,Hello world,fr\n2,,fr\n");
+    flowFile.assertAttributeEquals(MachineTranslationRecordProcessor.ATTR_RECORD_COUNT, "2");
+    flowFile.assertAttributeExists(MachineTranslationProcessor.ATTR_DURATION);
+
+    assertEquals(
+        Long.valueOf(2),
+        testRunner.getCounterValue(MachineTranslationRecordProcessor.COUNTER_RECORDS));
+    assertEquals(
+        Long.valueOf(1),
+        testRunner.getCounterValue(MachineTranslationRecordProcessor.COUNTER_FIELDS));
+    assertEquals(
+        Long.valueOf(1),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_CONNECTOR_CALLS));
+  }
+
+  @Test
+  public void testSourceLanguageField() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE, "de");
+    testRunner.setProperty(MachineTranslationRecordProcessor.PROP_SOURCE_LANGUAGE_FIELD, "/lang");
+    reader.addRecord(1, "Bonjour le monde", "fr");
+    reader.addRecord(2, "Ciao mondo", "it");
+    reader.addRecord(3, "Hallo Welt", null);
+    testRunner.enqueue(new byte[0]);
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationRecordProcessor.REL_SUCCESS, 1);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationRecordProcessor.REL_SUCCESS)
+        .get(0)
+        .assertContentEquals(
+            "id,text,lang\n1,Hello world,fr\n2,Ciao mondo,it\n3,Hello world,\n");
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationRecordProcessor.REL_SUCCESS)
+        .get(0)
+        .assertAttributeEquals(MachineTranslationRecordProcessor.ATTR_UNSUPPORTED_COUNT, "1");
+
+    // Italian isn't supported by the connector, so the record is left untranslated
+    assertEquals(
+        Long.valueOf(1),
+        testRunner.getCounterValue(MachineTranslationRecordProcessor.COUNTER_UNSUPPORTED));
+  }
+
+  @Test
+  public void testNonStringFieldsSkipped() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE, "fr");
+    testRunner.setProperty(MachineTranslationRecordProcessor.PROP_FIELDS, "/id\n/text");
+    reader.addRecord(1, "Bonjour le monde", "fr");
+    testRunner.enqueue(new byte[0]);
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationRecordProcessor.REL_SUCCESS, 1);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationRecordProcessor.REL_SUCCESS)
+        .get(0)
+        .assertContentEquals("id,text,lang\n1,Hello world,fr\n");
+    assertEquals(
+        Long.valueOf(1),
+        testRunner.getCounterValue(MachineTranslationRecordProcessor.COUNTER_FIELDS));
+  }
+
+  @Test
+  public void testBatches() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE, "fr");
+    testRunner.setProperty(MachineTranslationRecordProcessor.PROP_RECORD_BATCH_SIZE, "2");
+    testRunner.setProperty(MachineTranslationRecordProcessor.PROP_BATCH_CONCURRENCY, "2");
+    for (int i = 0; i < 5; i++) {
+      reader.addRecord(i, "Bonjour " + i, "fr");
+    }
+    testRunner.enqueue(new byte[0]);
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationRecordProcessor.REL_SUCCESS, 1);
+    MockFlowFile flowFile =
+        testRunner
+            .getFlowFilesForRelationship(MachineTranslationRecordProcessor.REL_SUCCESS)
+            .get(0);
+    flowFile.assertAttributeEquals(MachineTranslationRecordProcessor.ATTR_RECORD_COUNT, "5");
+    assertEquals(
+        "id,text,lang\n0,Hello world,fr\n1,Hello world,fr\n2,Hello world,fr\n"
+            + "3,Hello world,fr\n4,Hello world,fr\n",
+        flowFile.getContent());
+    assertEquals(
+        Long.valueOf(5),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_CONNECTOR_CALLS));
+  }
+
+  @Test
+  public void testDuplicateValuesTranslatedOnce() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE, "fr");
+    reader.addRecord(1, "Bonjour", "fr");
+    reader.addRecord(2, "Bonjour", "fr");
+    testRunner.enqueue(new byte[0]);
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationRecordProcessor.REL_SUCCESS, 1);
+    assertEquals(
+        Long.valueOf(1),
+        testRunner.getCounterValue(MachineTranslationProcessor.COUNTER_CONNECTOR_CALLS));
+    assertEquals(
+        Long.valueOf(2),
+        testRunner.getCounterValue(MachineTranslationRecordProcessor.COUNTER_FIELDS));
+  }
+
+  @Test
+  public void testFailure() {
+    testRunner.setProperty(MachineTranslationProcessor.PROP_SOURCE_LANGUAGE, "fr");
+    testRunner.setProperty(
+        MachineTranslationProcessor.PROP_CONNECTOR, FailingTestConnector.class.getName());
+    reader.addRecord(1, "Bonjour le monde", "fr");
+    testRunner.enqueue(new byte[0], Map.of("filename", "test.csv"));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(MachineTranslationRecordProcessor.REL_FAILURE, 1);
+    testRunner
+        .getFlowFilesForRelationship(MachineTranslationRecordProcessor.REL_FAILURE)
+        .get(0)
+        .assertAttributeNotExists(MachineTranslationRecordProcessor.ATTR_RECORD_COUNT);
+  }
+
+  @Test
+  public void testFieldsValidation() {
+    testRunner.setProperty(MachineTranslationRecordProcessor.PROP_FIELDS, "/text\n/lang");
+    testRunner.assertValid();
+
+    testRunner.setProperty(MachineTranslationRecordProcessor.PROP_FIELDS, "/text\n/[");
+    testRunner.assertNotValid();
+  }
+}
@@ -0,0 +1,59 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+  @Test
+  public void testBurst() throws InterruptedException {
+    RateLimiter limiter = new RateLimiter(10);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 10; i++) {
+      limiter.acquire();
+    }
+
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+  }
+
+  @Test
+  public void testLimited() throws InterruptedException {
+    RateLimiter limiter = new RateLimiter(20);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 30; i++) {
+      limiter.acquire();
+    }
+
+    // The first 20 are allowed immediately, and the remaining 10 take half a second
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(450));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalid() {
+    new RateLimiter(0);
+  }
+}
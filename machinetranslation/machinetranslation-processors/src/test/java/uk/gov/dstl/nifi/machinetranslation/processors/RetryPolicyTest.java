@@ -0,0 +1,81 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import uk.gov.dstl.machinetranslation.connector.api.exceptions.ConnectorException;
+
+public class RetryPolicyTest {
+
+  @Test
+  public void testRetryable() {
+    RetryPolicy policy = new RetryPolicy(3, 100, 1000, Pattern.compile("(?i)rate limit"));
+
+    assertTrue(policy.isRetryable(new ConnectorException("Rate limit exceeded")));
+    assertTrue(policy.isRetryable(new IOException("Wrapped", new SocketTimeoutException())));
+    assertFalse(policy.isRetryable(new ConnectorException("Unsupported language")));
+    assertFalse(policy.isRetryable(new IOException("Malformed response")));
+  }
+
+  @Test
+  public void testNoPattern() {
+    RetryPolicy policy = new RetryPolicy(3, 100, 1000, null);
+
+    assertTrue(policy.isRetryable(new SocketTimeoutException()));
+    assertFalse(policy.isRetryable(new ConnectorException("Rate limit exceeded")));
+  }
+
+  @Test
+  public void testDelay() {
+    RetryPolicy policy = new RetryPolicy(100, 100, 1000, null);
+
+    for (int i = 0; i < 10; i++) {
+      long first = policy.delayMillis(0);
+      assertTrue(first >= 50 && first <= 100);
+
+      long third = policy.delayMillis(2);
+      assertTrue(third >= 200 && third <= 400);
+
+      long capped = policy.delayMillis(99);
+      assertTrue(capped >= 500 && capped <= 1000);
+    }
+  }
+
+  @Test
+  public void testCanRetry() {
+    RetryPolicy policy = new RetryPolicy(3, 100, 1000, 2000, null);
+
+    assertTrue(policy.canRetry(0, 0, 100));
+    assertTrue(policy.canRetry(2, 1000, 1000));
+    assertFalse(policy.canRetry(3, 0, 100));
+    assertFalse(policy.canRetry(2, 1500, 1000));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalid() {
+    new RetryPolicy(3, 1000, 100, null);
+  }
+}
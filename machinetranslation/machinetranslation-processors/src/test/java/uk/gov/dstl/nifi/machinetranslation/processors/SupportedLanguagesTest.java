@@ -0,0 +1,66 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import org.junit.Test;
+import uk.gov.dstl.machinetranslation.connector.api.LanguagePair;
+import uk.gov.dstl.machinetranslation.connector.api.utils.ConnectorUtils;
+
+public class SupportedLanguagesTest {
+
+  private final SupportedLanguages supportedLanguages =
+      new SupportedLanguages(
+          List.of(
+              new LanguagePair("fr", "en"),
+              new LanguagePair("de", "en"),
+              new LanguagePair("en", "fr")));
+
+  @Test
+  public void testSupported() {
+    assertTrue(supportedLanguages.isSupported("fr", "en"));
+    assertTrue(supportedLanguages.isSupported("de", "en"));
+    assertTrue(supportedLanguages.isSupported("en", "fr"));
+
+    assertFalse(supportedLanguages.isSupported("de", "fr"));
+    assertFalse(supportedLanguages.isSupported("it", "en"));
+
+    assertEquals(3, supportedLanguages.size());
+  }
+
+  @Test
+  public void testAuto() {
+    assertTrue(supportedLanguages.isSupported(ConnectorUtils.LANGUAGE_AUTO, "en"));
+    assertTrue(supportedLanguages.isSupported(ConnectorUtils.LANGUAGE_AUTO, "fr"));
+    assertFalse(supportedLanguages.isSupported(ConnectorUtils.LANGUAGE_AUTO, "de"));
+  }
+
+  @Test
+  public void testEmpty() {
+    SupportedLanguages empty = new SupportedLanguages(List.of());
+
+    assertFalse(empty.isSupported("fr", "en"));
+    assertFalse(empty.isSupported(ConnectorUtils.LANGUAGE_AUTO, "en"));
+    assertEquals(0, empty.size());
+  }
+}
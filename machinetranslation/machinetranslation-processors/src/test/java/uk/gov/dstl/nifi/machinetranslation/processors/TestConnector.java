@@ -47,7 +47,9 @@ public class TestConnector implements MTConnectorApi {
   public List<LanguageDetection> identifyLanguage(String content) throws ConnectorException {
     if (!configureCalled) throw new ConnectorException("Configure must be called first");
 
-    throw new UnsupportedOperationException("Not supported");
+    if (content.startsWith("Hello")) return List.of(new LanguageDetection("en", 0.95));
+
+    return List.of(new LanguageDetection("fr", 0.9), new LanguageDetection("en", 0.1));
   }
 
   @Override
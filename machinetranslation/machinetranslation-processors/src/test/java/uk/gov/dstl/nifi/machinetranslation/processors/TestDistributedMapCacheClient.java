@@ -0,0 +1,103 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.distributed.cache.client.Deserializer;
+import org.apache.nifi.distributed.cache.client.DistributedMapCacheClient;
+import org.apache.nifi.distributed.cache.client.Serializer;
+
+public class TestDistributedMapCacheClient extends AbstractControllerService
+    implements DistributedMapCacheClient {
+  private final Map<String, byte[]> values = new ConcurrentHashMap<>();
+
+  @Override
+  public <K, V> boolean putIfAbsent(
+      K key, V value, Serializer<K> keySerializer, Serializer<V> valueSerializer)
+      throws IOException {
+    return values.putIfAbsent(toKey(key, keySerializer), toBytes(value, valueSerializer)) == null;
+  }
+
+  @Override
+  public <K, V> V getAndPutIfAbsent(
+      K key,
+      V value,
+      Serializer<K> keySerializer,
+      Serializer<V> valueSerializer,
+      Deserializer<V> valueDeserializer)
+      throws IOException {
+    byte[] existing =
+        values.putIfAbsent(toKey(key, keySerializer), toBytes(value, valueSerializer));
+    return existing == null ? null : valueDeserializer.deserialize(existing);
+  }
+
+  @Override
+  public <K> boolean containsKey(K key, Serializer<K> keySerializer) throws IOException {
+    return values.containsKey(toKey(key, keySerializer));
+  }
+
+  @Override
+  public <K, V> void put(
+      K key, V value, Serializer<K> keySerializer, Serializer<V> valueSerializer)
+      throws IOException {
+    values.put(toKey(key, keySerializer), toBytes(value, valueSerializer));
+  }
+
+  @Override
+  public <K, V> V get(K key, Serializer<K> keySerializer, Deserializer<V> valueDeserializer)
+      throws IOException {
+    return valueDeserializer.deserialize(values.get(toKey(key, keySerializer)));
+  }
+
+  @Override
+  public void close() {}
+
+  @Override
+  public <K> boolean remove(K key, Serializer<K> serializer) throws IOException {
+    return values.remove(toKey(key, serializer)) != null;
+  }
+
+  @Override
+  public long removeByPattern(String regex) {
+    long size = values.size();
+    values.keySet().removeIf(k -> k.matches(regex));
+    return size - values.size();
+  }
+
+  public int size() {
+    return values.size();
+  }
+
+  private static <T> String toKey(T key, Serializer<T> serializer) throws IOException {
+    return new String(toBytes(key, serializer), StandardCharsets.UTF_8);
+  }
+
+  private static <T> byte[] toBytes(T value, Serializer<T> serializer) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    serializer.serialize(value, baos);
+    return baos.toByteArray();
+  }
+}
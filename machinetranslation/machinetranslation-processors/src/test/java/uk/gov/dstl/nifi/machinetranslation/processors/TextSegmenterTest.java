@@ -0,0 +1,100 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class TextSegmenterTest {
+
+  @Test
+  public void testShortText() throws IOException {
+    assertEquals(List.of("Hello world."), segment("Hello world.", 100));
+    assertEquals(List.of(), segment("", 100));
+  }
+
+  @Test
+  public void testParagraphs() throws IOException {
+    assertEquals(
+        List.of("First paragraph.\n\n", "Second paragraph."),
+        segment("First paragraph.\n\nSecond paragraph.", 25));
+  }
+
+  @Test
+  public void testSentences() throws IOException {
+    assertEquals(
+        List.of("First sentence. ", "Second sentence. ", "Third sentence."),
+        segment("First sentence. Second sentence. Third sentence.", 20));
+  }
+
+  @Test
+  public void testWords() throws IOException {
+    assertEquals(
+        List.of("one two ", "three ", "four five"), segment("one two three four five", 10));
+  }
+
+  @Test
+  public void testNoBreaks() throws IOException {
+    assertEquals(List.of("abcd", "efgh", "ij"), segment("abcdefghij", 4));
+  }
+
+  @Test
+  public void testSurrogatePairs() throws IOException {
+    String text = "a😀😀";
+    List<String> segments = segment(text, 2);
+
+    assertEquals(List.of("a", "😀", "😀"), segments);
+  }
+
+  @Test
+  public void testLossless() throws IOException {
+    String text =
+        "  Lorem ipsum dolor sit amet, consectetur adipiscing elit.\n\n"
+            + "Sed do eiusmod tempor incididunt!  Ut labore et dolore magna aliqua?\n"
+            + "Ut enim ad minim veniam...   ";
+
+    for (int size = 2; size < text.length() + 2; size++) {
+      List<String> segments = segment(text, size);
+
+      assertEquals(text, String.join("", segments));
+      for (String s : segments) {
+        assertTrue(s.length() <= size);
+      }
+    }
+  }
+
+  private static List<String> segment(String text, int maxChars) throws IOException {
+    TextSegmenter segmenter = new TextSegmenter(new StringReader(text), maxChars);
+
+    List<String> segments = new ArrayList<>();
+    String s;
+    while ((s = segmenter.next()) != null) {
+      segments.add(s);
+    }
+
+    return segments;
+  }
+}
@@ -0,0 +1,85 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import uk.gov.dstl.machinetranslation.connector.api.Translation;
+
+public class TranslationCacheTest {
+
+  @Test
+  public void testKey() {
+    String key = TranslationCache.key("fr", "en", "Bonjour le monde");
+
+    assertEquals(key, TranslationCache.key("fr", "en", "Bonjour le monde"));
+    assertNotEquals(key, TranslationCache.key("de", "en", "Bonjour le monde"));
+    assertNotEquals(key, TranslationCache.key("fr", "en", "Bonjour"));
+  }
+
+  @Test
+  public void testGetPut() {
+    TranslationCache cache = new TranslationCache(10, 1024, TimeUnit.HOURS.toNanos(1));
+
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.put("a", new Translation("fr", "Hello world")));
+    assertEquals("Hello world", cache.get("a").getContent());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testMaxEntries() {
+    TranslationCache cache = new TranslationCache(2, 1024, TimeUnit.HOURS.toNanos(1));
+
+    cache.put("a", new Translation("fr", "A"));
+    cache.put("b", new Translation("fr", "B"));
+    cache.get("a");
+    assertEquals(1, cache.put("c", new Translation("fr", "C")));
+
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+  }
+
+  @Test
+  public void testMaxBytes() {
+    TranslationCache cache = new TranslationCache(10, 20, TimeUnit.HOURS.toNanos(1));
+
+    cache.put("a", new Translation("fr", "12345"));
+    assertEquals(1, cache.put("b", new Translation("fr", "12345")));
+
+    assertNull(cache.get("a"));
+    assertNotNull(cache.get("b"));
+  }
+
+  @Test
+  public void testTtl() throws InterruptedException {
+    TranslationCache cache = new TranslationCache(10, 1024, 1);
+
+    cache.put("a", new Translation("fr", "Hello world"));
+    Thread.sleep(1);
+
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.size());
+  }
+}
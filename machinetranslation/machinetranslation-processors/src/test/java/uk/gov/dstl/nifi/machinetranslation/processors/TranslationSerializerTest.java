@@ -0,0 +1,67 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import uk.gov.dstl.machinetranslation.connector.api.Translation;
+
+public class TranslationSerializerTest {
+
+  private final TranslationSerializer serializer = new TranslationSerializer();
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Translation t = roundTrip(new Translation("fr", "Hello world – ½"));
+
+    assertEquals("fr", t.getSourceLanguage());
+    assertEquals("Hello world – ½", t.getContent());
+  }
+
+  @Test
+  public void testNullLanguage() throws IOException {
+    Translation t = roundTrip(new Translation(null, "Hello world"));
+
+    assertNull(t.getSourceLanguage());
+    assertEquals("Hello world", t.getContent());
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    assertNull(serializer.deserialize(null));
+    assertNull(serializer.deserialize(new byte[0]));
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownVersion() throws IOException {
+    serializer.deserialize(new byte[] {99, 0, 0});
+  }
+
+  private Translation roundTrip(Translation translation) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    serializer.serialize(translation, baos);
+
+    return serializer.deserialize(baos.toByteArray());
+  }
+}
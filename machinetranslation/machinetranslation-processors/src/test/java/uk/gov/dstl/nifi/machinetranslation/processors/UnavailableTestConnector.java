@@ -0,0 +1,40 @@
+package uk.gov.dstl.nifi.machinetranslation.processors;
+
+/*-
+ * #%L
+ * Machine Translation Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import uk.gov.dstl.machinetranslation.connector.api.Translation;
+import uk.gov.dstl.machinetranslation.connector.api.exceptions.ConnectorException;
+
+/** Connector which reports itself unavailable for a set number of translations, then recovers */
+public class UnavailableTestConnector extends TestConnector {
+  public static final AtomicInteger FAILURES = new AtomicInteger();
+
+  @Override
+  public Translation translate(String sourceLanguage, String targetLanguage, String content)
+      throws ConnectorException {
+    if (FAILURES.getAndDecrement() > 0) {
+      throw new ConnectorException("503 Service Unavailable");
+    }
+
+    return super.translate(sourceLanguage, targetLanguage, content);
+  }
+}
@@ -0,0 +1,161 @@
+package uk.gov.dstl.nifi.openocr.benchmarks;
+
+/*-
+ * #%L
+ * OpenOCR Benchmarks
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.dstl.nifi.openocr.processors.OpenOCRProcessor;
+
+/**
+ * Benchmarks OpenOCRProcessor against a {@link StubOCRServer}, across image sizes, request modes
+ * and execution modes. Each benchmark thread has its own TestRunner, so the number of JMH threads
+ * ({@code -t}) simulates Concurrent Tasks, all sharing the same server.
+ *
+ * <p>{@code throughput} reports batches/sec and, through the auxiliary counter, FlowFiles/sec.
+ * {@code latency} reports the time to process a batch, including p50 and p99. Run with {@code -prof
+ * gc} to measure the allocation rate.
+ */
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"-Xmx4g", "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn"})
+@State(Scope.Thread)
+public class OpenOCRProcessorBenchmark {
+  private static final long SEED = 42L;
+
+  /** Image size in bytes, from 1 KB to 100 MB */
+  @Param({"1024", "102400", "1048576", "10485760", "104857600"})
+  public int contentSize;
+
+  @Param({"1", "10"})
+  public int batchSize;
+
+  @Param({"streamed", "buffered"})
+  public String requestMode;
+
+  @Param({"synchronous", "asynchronous"})
+  public String executionMode;
+
+  /** Simulated time taken by the server to perform OCR */
+  @Param({"0"})
+  public long latencyMicros;
+
+  private StubOCRServer server;
+  private TestRunner testRunner;
+  private byte[] content;
+
+  /** Counts FlowFiles, so that JMH reports FlowFiles/sec as well as batches/sec */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class FlowFiles {
+    public long flowFiles;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      flowFiles = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    // The content doesn't need to be a real image, as the stub server doesn't look at it
+    content = new byte[contentSize];
+    new Random(SEED).nextBytes(content);
+
+    server = new StubOCRServer(Math.max(4, batchSize), latencyMicros);
+
+    testRunner = TestRunners.newTestRunner(OpenOCRProcessor.class);
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_HOST, "localhost");
+    testRunner.setProperty(
+        OpenOCRProcessor.PROPERTY_OPENOCR_PORT, String.valueOf(server.getPort()));
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_REQUEST_MODE, requestMode);
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_EXECUTION_MODE, executionMode);
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_MAX_IN_FLIGHT, String.valueOf(batchSize));
+
+    // Schedule the processor once, so that each invocation only measures triggering it
+    testRunner.run(1, false, true);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    testRunner.run(1, true, false);
+    server.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public void throughput(FlowFiles counter) {
+    extractBatch();
+    counter.flowFiles += batchSize;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void latency() {
+    extractBatch();
+  }
+
+  /**
+   * Enqueues a batch of FlowFiles, and triggers the processor until they have all been processed.
+   * In synchronous mode, the processor handles a single FlowFile each time it is triggered.
+   */
+  private void extractBatch() {
+    for (int i = 0; i < batchSize; i++) {
+      testRunner.enqueue(content);
+    }
+
+    int processed = 0;
+    while (processed < batchSize) {
+      testRunner.run(1, false, false);
+
+      if (!testRunner
+          .getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_FAILURE)
+          .isEmpty()) {
+        throw new IllegalStateException("Request to stub server failed");
+      }
+      processed =
+          testRunner
+              .getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS)
+              .size();
+    }
+
+    testRunner.clearTransferState();
+  }
+}
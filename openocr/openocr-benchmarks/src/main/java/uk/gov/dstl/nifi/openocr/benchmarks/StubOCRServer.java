@@ -0,0 +1,96 @@
+package uk.gov.dstl.nifi.openocr.benchmarks;
+
+/*-
+ * #%L
+ * OpenOCR Benchmarks
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal in-process OpenOCR server, which reads the whole request and responds with fixed text.
+ * It listens on an ephemeral port on the loopback address, so benchmarks can be run offline. A
+ * fixed latency can be added to each response to simulate the time taken to perform OCR.
+ */
+public class StubOCRServer implements AutoCloseable {
+  public static final String RESPONSE =
+      "This is a test image\n\nTesting, testing... 1... 2...\n3...";
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final long latencyMicros;
+
+  /**
+   * Create and start a new server
+   *
+   * @param threads The number of threads handling requests
+   * @param latencyMicros The time to wait before responding to each request
+   */
+  public StubOCRServer(int threads, long latencyMicros) throws IOException {
+    this.latencyMicros = latencyMicros;
+
+    executor = Executors.newFixedThreadPool(threads);
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/ocr", this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    byte[] buffer = new byte[64 * 1024];
+    try (InputStream is = exchange.getRequestBody()) {
+      while (is.read(buffer) != -1) {
+        // Discard the request, as the stub always gives the same response
+      }
+    }
+
+    if (latencyMicros > 0) {
+      try {
+        TimeUnit.MICROSECONDS.sleep(latencyMicros);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    byte[] response = RESPONSE.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(200, response.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(response);
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
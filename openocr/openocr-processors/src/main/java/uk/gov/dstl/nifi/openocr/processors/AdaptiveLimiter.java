@@ -0,0 +1,104 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Limits the number of requests in flight to the OpenOCR Server. When adaptive, the limit is
+ * adjusted using additive-increase/multiplicative-decrease (AIMD): it grows by roughly one for
+ * each limit's worth of successful requests, and is cut whenever the server is overloaded, so that
+ * it converges on the concurrency the server can sustain.
+ */
+public class AdaptiveLimiter {
+  /** Factor by which the limit is reduced when the server is overloaded */
+  public static final double BACKOFF_RATIO = 0.75;
+
+  private final int maxLimit;
+  private final boolean adaptive;
+
+  private double limit;
+  private int inFlight = 0;
+
+  /**
+   * Create a new limiter, which starts at its maximum limit
+   *
+   * @param maxLimit The maximum number of requests in flight
+   * @param adaptive Whether the limit is adjusted by the outcome of requests
+   */
+  public AdaptiveLimiter(int maxLimit, boolean adaptive) {
+    if (maxLimit < 1) {
+      throw new IllegalArgumentException("Limit must be at least 1");
+    }
+
+    this.maxLimit = maxLimit;
+    this.adaptive = adaptive;
+    this.limit = maxLimit;
+  }
+
+  /**
+   * Acquires a permit to send a request, if fewer than the current limit are in flight
+   *
+   * @return true if a permit was acquired, in which case one of the on... methods must be called
+   *     once the request is complete
+   */
+  public synchronized boolean tryAcquire() {
+    if (inFlight >= getLimit()) {
+      return false;
+    }
+
+    inFlight++;
+    return true;
+  }
+
+  /** Releases a permit for a request which the server handled successfully */
+  public synchronized void onSuccess() {
+    // Only grow the limit if it is being used, otherwise it would grow without bound when idle
+    if (adaptive && inFlight * 2 >= limit) {
+      limit = Math.min(maxLimit, limit + 1.0 / limit);
+    }
+    inFlight--;
+  }
+
+  /** Releases a permit for a request which failed because the server was overloaded */
+  public synchronized void onDropped() {
+    if (adaptive) {
+      limit = Math.max(1.0, limit * BACKOFF_RATIO);
+    }
+    inFlight--;
+  }
+
+  /**
+   * Releases a permit without adjusting the limit, for requests whose outcome says nothing about
+   * the server's capacity (e.g. they were answered from the cache, or were invalid)
+   */
+  public synchronized void onIgnored() {
+    inFlight--;
+  }
+
+  /** Returns the current limit */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  /** Returns the number of requests currently in flight */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+}
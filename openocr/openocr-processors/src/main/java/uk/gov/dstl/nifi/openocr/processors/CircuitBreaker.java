@@ -0,0 +1,161 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Stops requests being sent to the OpenOCR Server when too many recent requests have failed.
+ *
+ * <p>The outcomes of the most recent requests are held in a fixed size window. Once the window is
+ * full and the proportion of failures reaches the threshold, the circuit opens and no requests are
+ * allowed for a fixed period. After that, a single trial request is allowed: if it succeeds the
+ * circuit closes again, and if it fails the circuit re-opens.
+ */
+public class CircuitBreaker {
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final double failureThreshold;
+  private final long openNanos;
+  private final boolean[] window;
+
+  private State state = State.CLOSED;
+  private int next = 0;
+  private int count = 0;
+  private int failures = 0;
+  private long openedAt;
+  private boolean trialInFlight = false;
+
+  /**
+   * Create a new circuit breaker
+   *
+   * @param failureThreshold The proportion of failed requests, between 0 and 1, at which the
+   *     circuit opens. If 0, the circuit never opens.
+   * @param windowSize The number of recent requests to consider
+   * @param openNanos How long the circuit stays open before a trial request is allowed
+   */
+  public CircuitBreaker(double failureThreshold, int windowSize, long openNanos) {
+    if (windowSize < 1) {
+      throw new IllegalArgumentException("Window size must be at least 1");
+    }
+
+    this.failureThreshold = failureThreshold;
+    this.openNanos = openNanos;
+    this.window = new boolean[windowSize];
+  }
+
+  /**
+   * Returns whether a request can be sent. If true, one of the on... methods must be called once
+   * the request is complete.
+   */
+  public synchronized boolean allowRequest() {
+    if (state == State.OPEN) {
+      if (System.nanoTime() - openedAt < openNanos) {
+        return false;
+      }
+      state = State.HALF_OPEN;
+    }
+
+    if (state == State.HALF_OPEN) {
+      if (trialInFlight) {
+        return false;
+      }
+      trialInFlight = true;
+    }
+
+    return true;
+  }
+
+  /** Records a successful request */
+  public synchronized void onSuccess() {
+    if (state == State.HALF_OPEN) {
+      close();
+    } else if (state == State.CLOSED) {
+      record(false);
+    }
+  }
+
+  /**
+   * Records a failed request
+   *
+   * @return true if the failure caused the circuit to open
+   */
+  public synchronized boolean onFailure() {
+    if (state == State.HALF_OPEN) {
+      open();
+      return true;
+    } else if (state == State.OPEN) {
+      return false;
+    }
+
+    record(true);
+    if (failureThreshold > 0 && count == window.length && failures >= failureThreshold * count) {
+      open();
+      return true;
+    }
+
+    return false;
+  }
+
+  /** Records a request whose outcome says nothing about the health of the server */
+  public synchronized void onIgnored() {
+    if (state == State.HALF_OPEN) {
+      trialInFlight = false;
+    }
+  }
+
+  /** Returns the current state, without moving from open to half-open */
+  public synchronized State getState() {
+    return state;
+  }
+
+  private void record(boolean failure) {
+    if (count == window.length) {
+      if (window[next]) {
+        failures--;
+      }
+    } else {
+      count++;
+    }
+
+    window[next] = failure;
+    if (failure) {
+      failures++;
+    }
+    next = (next + 1) % window.length;
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openedAt = System.nanoTime();
+    trialInFlight = false;
+  }
+
+  private void close() {
+    state = State.CLOSED;
+    trialInFlight = false;
+    next = 0;
+    count = 0;
+    failures = 0;
+  }
+}
@@ -0,0 +1,178 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Spreads requests across a number of OpenOCR Server endpoints. Each request goes to whichever of
+ * two randomly chosen endpoints has fewer requests outstanding (the "power of two choices"), which
+ * avoids both the herding of always choosing the least loaded endpoint and the imbalance of
+ * choosing at random.
+ *
+ * <p>Health is tracked passively from the outcome of requests. An endpoint which fails a number of
+ * times in a row is ejected for a fixed period, after which a single probe request is sent to it.
+ * If the probe succeeds, the endpoint is used as normal again, and if it fails it is ejected again.
+ * If every endpoint has been ejected, requests go to the one which was ejected longest ago so that
+ * they aren't held up indefinitely.
+ */
+public class EndpointSelector {
+  private final List<Endpoint> endpoints = new ArrayList<>();
+  private final int failureThreshold;
+  private final long ejectionNanos;
+
+  /**
+   * Create a new selector
+   *
+   * @param uris The endpoints to select from
+   * @param failureThreshold The number of consecutive failures after which an endpoint is ejected
+   * @param ejectionNanos How long an endpoint is ejected for before it is probed again
+   */
+  public EndpointSelector(List<URI> uris, int failureThreshold, long ejectionNanos) {
+    if (uris.isEmpty()) {
+      throw new IllegalArgumentException("At least one endpoint is required");
+    }
+
+    for (URI uri : uris) {
+      endpoints.add(new Endpoint(uri));
+    }
+    this.failureThreshold = failureThreshold;
+    this.ejectionNanos = ejectionNanos;
+  }
+
+  /**
+   * Selects the endpoint for a request. {@link #release(Endpoint, boolean)} must be called once
+   * the request is complete.
+   */
+  public synchronized Endpoint select() {
+    long now = System.nanoTime();
+
+    List<Endpoint> available = new ArrayList<>(endpoints.size());
+    for (Endpoint e : endpoints) {
+      if (isAvailable(e, now)) {
+        available.add(e);
+      }
+    }
+
+    Endpoint selected;
+    if (available.isEmpty()) {
+      selected = endpoints.get(0);
+      for (Endpoint e : endpoints) {
+        if (e.ejectedAt - selected.ejectedAt < 0) {
+          selected = e;
+        }
+      }
+    } else if (available.size() == 1) {
+      selected = available.get(0);
+    } else {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int first = random.nextInt(available.size());
+      int second = random.nextInt(available.size() - 1);
+      if (second >= first) {
+        second++;
+      }
+
+      Endpoint a = available.get(first);
+      Endpoint b = available.get(second);
+      selected = b.outstanding < a.outstanding ? b : a;
+    }
+
+    selected.outstanding++;
+    return selected;
+  }
+
+  /**
+   * Releases an endpoint once a request to it is complete
+   *
+   * @param endpoint The endpoint returned by {@link #select()}
+   * @param healthy Whether the endpoint handled the request, or was unavailable or overloaded
+   * @return true if the endpoint was ejected as a result of this request
+   */
+  public synchronized boolean release(Endpoint endpoint, boolean healthy) {
+    endpoint.outstanding--;
+
+    if (healthy) {
+      endpoint.consecutiveFailures = 0;
+      return false;
+    }
+
+    endpoint.consecutiveFailures++;
+    if (endpoint.consecutiveFailures >= failureThreshold) {
+      endpoint.ejectedAt = System.nanoTime();
+      return true;
+    }
+
+    return false;
+  }
+
+  /** Returns whether an endpoint is currently ejected */
+  public synchronized boolean isEjected(Endpoint endpoint) {
+    return endpoint.consecutiveFailures >= failureThreshold
+        && System.nanoTime() - endpoint.ejectedAt < ejectionNanos;
+  }
+
+  /** Returns the number of requests outstanding to an endpoint */
+  public synchronized int getOutstanding(Endpoint endpoint) {
+    return endpoint.outstanding;
+  }
+
+  /** Returns the endpoints being selected from */
+  public List<Endpoint> getEndpoints() {
+    return endpoints;
+  }
+
+  /**
+   * Endpoints which haven't been ejected are always available, and ejected endpoints become
+   * available for a single probe request once their ejection has passed
+   */
+  private boolean isAvailable(Endpoint e, long now) {
+    if (e.consecutiveFailures < failureThreshold) {
+      return true;
+    }
+
+    return now - e.ejectedAt >= ejectionNanos && e.outstanding == 0;
+  }
+
+  /** An OpenOCR Server endpoint, and the number of requests outstanding to it */
+  public static class Endpoint {
+    private final URI uri;
+
+    private int outstanding = 0;
+    private int consecutiveFailures = 0;
+    private long ejectedAt;
+
+    private Endpoint(URI uri) {
+      this.uri = uri;
+    }
+
+    public URI getUri() {
+      return uri;
+    }
+
+    @Override
+    public String toString() {
+      return uri.toString();
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+/**
+ * Shrinks images before they are sent to the OpenOCR Server. Images are scaled down so that
+ * neither side exceeds a maximum dimension, converted to grayscale and re-encoded as PNG, which
+ * is lossless and accepted by OpenOCR. OCR accuracy doesn't improve much above the equivalent of
+ * 300 DPI, so larger images only cost bandwidth and OCR time.
+ */
+public final class ImageScaler {
+  private ImageScaler() {}
+
+  /**
+   * Scales an image
+   *
+   * @param image The encoded image, in any format supported by ImageIO
+   * @param maxDimension The maximum width and height of the scaled image, in pixels
+   * @return The scaled image encoded as PNG, or null if the image couldn't be decoded
+   */
+  public static byte[] scale(byte[] image, int maxDimension) {
+    BufferedImage source;
+    try {
+      source = ImageIO.read(new ByteArrayInputStream(image));
+    } catch (IOException e) {
+      return null;
+    }
+    if (source == null) {
+      return null;
+    }
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try {
+      ImageIO.write(scale(source, maxDimension), "png", baos);
+    } catch (IOException e) {
+      return null;
+    }
+
+    return baos.toByteArray();
+  }
+
+  /** Scales a decoded image to fit within the maximum dimension, and converts it to grayscale */
+  static BufferedImage scale(BufferedImage source, int maxDimension) {
+    double factor =
+        Math.min(1.0, (double) maxDimension / Math.max(source.getWidth(), source.getHeight()));
+    int width = Math.max(1, (int) Math.round(source.getWidth() * factor));
+    int height = Math.max(1, (int) Math.round(source.getHeight() * factor));
+
+    // Bilinear interpolation only samples neighbouring pixels, so shrinking by more than half in
+    // one step loses detail. Halving repeatedly first gives a result close to area averaging.
+    BufferedImage current = source;
+    while (current.getWidth() / 2 >= width && current.getHeight() / 2 >= height) {
+      current = draw(current, current.getWidth() / 2, current.getHeight() / 2);
+    }
+
+    return draw(current, width, height);
+  }
+
+  private static BufferedImage draw(BufferedImage source, int width, int height) {
+    BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+
+    Graphics2D g = target.createGraphics();
+    try {
+      // Transparent areas are drawn as white, as they would usually be displayed
+      g.setColor(Color.WHITE);
+      g.fillRect(0, 0, width, height);
+      g.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(source, 0, 0, width, height, null);
+    } finally {
+      g.dispose();
+    }
+
+    return target;
+  }
+}
@@ -0,0 +1,109 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations, used to estimate percentiles without storing every value.
+ * Values are recorded into logarithmic buckets, each power of two being split into 8 buckets, so
+ * estimates are within 12.5% of the true value.
+ *
+ * <p>An identical copy of this class is in machinetranslation-processors, as the two bundles are
+ * built independently. Only this copy is tested, so changes to one should be made to both.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+
+  /** Records a duration, in nanoseconds. Negative durations are recorded as 0. */
+  public void record(long nanos) {
+    counts.incrementAndGet(index(Math.max(0, nanos)));
+  }
+
+  /** Returns the number of durations recorded */
+  public long count() {
+    long count = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Estimates a percentile of the recorded durations
+   *
+   * @param percentile The percentile to estimate, between 0 and 100
+   * @return The estimated duration in nanoseconds, or 0 if nothing has been recorded
+   */
+  public long percentile(double percentile) {
+    long[] snapshot = new long[counts.length()];
+    long total = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return upperBound(i);
+      }
+    }
+
+    return upperBound(snapshot.length - 1);
+  }
+
+  /** Clears all recorded durations */
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+}
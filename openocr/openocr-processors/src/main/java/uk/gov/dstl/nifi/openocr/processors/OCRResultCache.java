@@ -0,0 +1,180 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cache of extracted text, stored on disk with an in-memory index. Each entry is held in its own
+ * file, named after its key, and the index is used to evict the least recently used entries when
+ * there are too many entries or they take up too much space.
+ *
+ * <p>Existing entries in the directory are loaded into the index when the cache is created, so
+ * that the cache survives restarts. Temporary files left behind by a restart between writing an
+ * entry and moving it into place are deleted at the same time.
+ */
+public class OCRResultCache {
+  private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}");
+  private static final Pattern TMP_PATTERN = Pattern.compile("[0-9a-f]{64}[0-9]*\\.tmp");
+
+  private final Path directory;
+  private final int maxEntries;
+  private final long maxBytes;
+
+  private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes = 0;
+
+  /**
+   * Create a new cache
+   *
+   * @param directory The directory to store cached text in, which will be created if necessary
+   * @param maxEntries The maximum number of entries to hold
+   * @param maxBytes The maximum amount of disk space to use
+   */
+  public OCRResultCache(Path directory, int maxEntries, long maxBytes) throws IOException {
+    this.directory = directory;
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+
+    Files.createDirectories(directory);
+
+    List<Path> stale;
+    try (Stream<Path> files = Files.list(directory)) {
+      stale =
+          files
+              .filter(p -> TMP_PATTERN.matcher(p.getFileName().toString()).matches())
+              .collect(Collectors.toList());
+    }
+
+    for (Path p : stale) {
+      Files.deleteIfExists(p);
+    }
+
+    // Load existing entries, oldest first so that they are evicted first
+    List<Path> existing;
+    try (Stream<Path> files = Files.list(directory)) {
+      existing =
+          files
+              .filter(p -> KEY_PATTERN.matcher(p.getFileName().toString()).matches())
+              .sorted(Comparator.comparing(OCRResultCache::lastModified))
+              .collect(Collectors.toList());
+    }
+
+    for (Path p : existing) {
+      long size = Files.size(p);
+      index.put(p.getFileName().toString(), size);
+      bytes += size;
+    }
+
+    evict();
+  }
+
+  /**
+   * Returns the cached text, or null if there isn't any
+   *
+   * @param key A SHA-256 hash, as a lower-case hexadecimal string
+   */
+  public String get(String key) throws IOException {
+    synchronized (this) {
+      // Use get rather than containsKey, as only get moves the entry to the end of the access order
+      if (index.get(key) == null) {
+        return null;
+      }
+    }
+
+    try {
+      return new String(Files.readAllBytes(directory.resolve(key)), StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      // Evicted by another thread
+      return null;
+    }
+  }
+
+  /**
+   * Adds text to the cache, evicting older entries as required
+   *
+   * @param key A SHA-256 hash, as a lower-case hexadecimal string
+   * @param text The text to cache
+   */
+  public void put(String key, String text) throws IOException {
+    if (!KEY_PATTERN.matcher(key).matches()) {
+      throw new IllegalArgumentException("Key must be a SHA-256 hex string");
+    }
+
+    // Write to a temporary file first, so that partially written entries are never read
+    Path tmp = Files.createTempFile(directory, key, ".tmp");
+    try {
+      Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+
+      synchronized (this) {
+        Files.move(tmp, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING);
+
+        long size = Files.size(directory.resolve(key));
+        Long previous = index.put(key, size);
+        if (previous != null) {
+          bytes -= previous;
+        }
+        bytes += size;
+
+        evict();
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /** Returns the number of entries currently held */
+  public synchronized int size() {
+    return index.size();
+  }
+
+  private synchronized void evict() throws IOException {
+    Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+    while ((index.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      iterator.remove();
+      bytes -= entry.getValue();
+
+      Files.deleteIfExists(directory.resolve(entry.getKey()));
+    }
+  }
+
+  private static long lastModified(Path p) {
+    try {
+      return Files.getLastModifiedTime(p).toMillis();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+}
@@ -20,34 +20,75 @@ package uk.gov.dstl.nifi.openocr.processors;
  * #L%
  */
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.nifi.annotation.behavior.TriggerWhenEmpty;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.PropertyValue;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.expression.ExpressionLanguageScope;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.processor.*;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
+import uk.gov.dstl.nifi.openocr.processors.EndpointSelector.Endpoint;
+import uk.gov.dstl.openocr.OpenOCRRequest;
 import uk.gov.dstl.openocr.OpenOCRRequestBase64;
+import uk.gov.dstl.openocr.OpenOCRRequestBase64Entity;
+import uk.gov.dstl.openocr.OpenOCRRequestMultipart;
+import uk.gov.dstl.openocr.OpenOCRRequestMultipartEntity;
+import uk.gov.dstl.openocr.OpenOCRRequestUrl;
 
 /**
  * Uses an external OpenOCR (https://github.com/tleyden/open-ocr) instance to extract text from
@@ -55,9 +96,20 @@ import uk.gov.dstl.openocr.OpenOCRRequestBase64;
  */
 @Tags({"ocr", "openocr", "dstl", "image", "text"})
 @CapabilityDescription("Use OpenOCR to extract text from images")
-public class OpenOCRProcessor extends AbstractProcessor {
+// Only needed in asynchronous mode, so that responses are completed while the queue is empty. In
+// synchronous mode, the processor yields whenever there is nothing to do.
+@TriggerWhenEmpty
+public class OpenOCRProcessor extends AbstractSessionFactoryProcessor {
 
   private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final ObjectWriter CACHE_KEY_WRITER =
+      OBJECT_MAPPER.writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+  /** Number of distinct evaluated Engine Arguments which are kept parsed */
+  private static final int TEMPLATE_CACHE_SIZE = 100;
+
+  /** How long an asynchronous task waits for a response when it can't send any more requests */
+  private static final long RESPONSE_WAIT_MILLIS = 100;
 
   public static final AllowableValue HTTP =
       new AllowableValue(
@@ -66,6 +118,44 @@ public class OpenOCRProcessor extends AbstractProcessor {
       new AllowableValue(
           "https", "HTTPS", "Communication with OpenOCR server will be done over HTTPS");
 
+  public static final AllowableValue STREAMED =
+      new AllowableValue(
+          "streamed",
+          "Streamed",
+          "Image content is Base64 encoded whilst it is sent to the OpenOCR server, without holding it in memory");
+  public static final AllowableValue BUFFERED =
+      new AllowableValue(
+          "buffered",
+          "Buffered",
+          "Image content is read into memory and Base64 encoded before it is sent to the OpenOCR server");
+  public static final AllowableValue MULTIPART =
+      new AllowableValue(
+          "multipart",
+          "Multipart",
+          "Image content is sent unencoded, whilst it is read, as part of a multipart request to the OpenOCR server's file upload endpoint, avoiding the overhead of Base64 encoding. The image type is taken from the mime.type attribute, if set.");
+
+  public static final AllowableValue SYNCHRONOUS =
+      new AllowableValue(
+          "synchronous",
+          "Synchronous",
+          "Each task sends a single request to the OpenOCR server and waits for the response");
+  public static final AllowableValue ASYNCHRONOUS =
+      new AllowableValue(
+          "asynchronous",
+          "Asynchronous",
+          "Requests are sent to the OpenOCR server without waiting for the response, and FlowFiles are transferred by later tasks once the response is received");
+
+  public static final AllowableValue FIXED_LIMIT =
+      new AllowableValue(
+          "fixed",
+          "Fixed",
+          "Requests in flight are limited only by Concurrent Tasks, or by Max In-Flight Requests when the Execution Mode is Asynchronous");
+  public static final AllowableValue ADAPTIVE_LIMIT =
+      new AllowableValue(
+          "adaptive",
+          "Adaptive",
+          "Requests in flight are limited as for Fixed, but the limit is reduced whenever the OpenOCR Server is overloaded and gradually increased again whilst it responds successfully");
+
   public static final PropertyDescriptor PROPERTY_OPENOCR_SCHEME =
       new PropertyDescriptor.Builder()
           .name("OPENOCR_SCHEME")
@@ -98,6 +188,48 @@ public class OpenOCRProcessor extends AbstractProcessor {
           .addValidator(StandardValidators.PORT_VALIDATOR)
           .build();
 
+  public static final PropertyDescriptor PROPERTY_OPENOCR_ENDPOINTS =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_ENDPOINTS")
+          .displayName("Endpoints")
+          .description(
+              "Comma-separated list of OpenOCR Servers, as host or host:port, to spread requests across. Each request is sent to whichever of two randomly chosen servers has fewer requests outstanding. If set, this is used instead of Host, and Port is only used for servers without a port.")
+          .required(false)
+          .addValidator(
+              (subject, input, context) -> {
+                ValidationResult.Builder result =
+                    new ValidationResult.Builder().subject(subject).input(input);
+                try {
+                  parseEndpoints(HTTP.getValue(), input, 80);
+                  return result.valid(true).build();
+                } catch (IllegalArgumentException e) {
+                  return result.valid(false).explanation(e.getMessage()).build();
+                }
+              })
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_ENDPOINT_FAILURE_THRESHOLD =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_ENDPOINT_FAILURE_THRESHOLD")
+          .displayName("Endpoint Failure Threshold")
+          .description(
+              "Number of consecutive timeouts, connection errors or server errors after which an OpenOCR Server is ejected, so that no requests are sent to it until the Endpoint Ejection Duration has passed")
+          .defaultValue("5")
+          .required(true)
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_ENDPOINT_EJECTION_DURATION =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_ENDPOINT_EJECTION_DURATION")
+          .displayName("Endpoint Ejection Duration")
+          .description(
+              "How long an OpenOCR Server is ejected for, after which a single probe request is sent to it to check whether it has recovered")
+          .defaultValue("30 secs")
+          .required(true)
+          .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+          .build();
+
   public static final PropertyDescriptor PROPERTY_PREPROCESSORS =
       new PropertyDescriptor.Builder()
           .name("OPENOCR_PREPROCESSORS")
@@ -115,10 +247,316 @@ public class OpenOCRProcessor extends AbstractProcessor {
           .description("JSON object containing additional arguments to pass to the OpenOCR engine")
           .required(false)
           .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+          .addValidator(
+              (subject, input, context) -> {
+                ValidationResult.Builder result =
+                    new ValidationResult.Builder().subject(subject).input(input);
+                if (context.isExpressionLanguageSupported(subject)
+                    && context.isExpressionLanguagePresent(input)) {
+                  return result.valid(true).explanation("Expression Language Present").build();
+                }
+
+                try {
+                  RequestTemplate.parseEngineArgs(input);
+                  return result.valid(true).build();
+                } catch (IOException e) {
+                  return result.valid(false).explanation("Must be a JSON object").build();
+                }
+              })
+          .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_IMAGE_URL =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_IMAGE_URL")
+          .displayName("Image URL")
+          .description(
+              "URL from which the OpenOCR Server fetches the image itself, for images which are on storage it can reach (e.g. ${http.url}). If set and not empty, the URL is sent in place of the FlowFile's content, which isn't read and may be empty, and the Request Mode, Scale Images and Split Pages properties are ignored. Cached text is keyed by URL, so shouldn't be used if the image at a URL can change.")
+          .required(false)
+          .addValidator(StandardValidators.URL_VALIDATOR)
           .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
-          // TODO: Can we validate it's a JSON object?
           .build();
 
+  public static final PropertyDescriptor PROPERTY_REQUEST_MODE =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_REQUEST_MODE")
+          .displayName("Request Mode")
+          .description("How the request to the OpenOCR Server is constructed")
+          .allowableValues(STREAMED, BUFFERED, MULTIPART)
+          .defaultValue(STREAMED.getValue())
+          .required(true)
+          .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_EXECUTION_MODE =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_EXECUTION_MODE")
+          .displayName("Execution Mode")
+          .description("Whether tasks wait for the OpenOCR Server to respond to each request")
+          .allowableValues(SYNCHRONOUS, ASYNCHRONOUS)
+          .defaultValue(SYNCHRONOUS.getValue())
+          .required(true)
+          .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_MAX_IN_FLIGHT =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_MAX_IN_FLIGHT")
+          .displayName("Max In-Flight Requests")
+          .description(
+              "Maximum number of requests which can be awaiting a response from the OpenOCR Server at once, when the Execution Mode is Asynchronous. Content is held in memory whilst a request is in flight.")
+          .defaultValue("10")
+          .required(true)
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_SCALE_IMAGES =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_SCALE_IMAGES")
+          .displayName("Scale Images")
+          .description(
+              "Whether images are scaled down to fit within Max Image Dimension, converted to grayscale and re-encoded as PNG before they are sent to the OpenOCR Server. The original image is sent if it can't be decoded, or if it is smaller than the scaled image. Images are held in memory whilst they are scaled.")
+          .allowableValues("true", "false")
+          .defaultValue("false")
+          .required(true)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_MAX_IMAGE_DIMENSION =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_MAX_IMAGE_DIMENSION")
+          .displayName("Max Image Dimension")
+          .description(
+              "Maximum width and height, in pixels, of images when Scale Images is true. The default is the length of an A4 page at 300 DPI.")
+          .defaultValue("3508")
+          .required(true)
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_SPLIT_PAGES =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_SPLIT_PAGES")
+          .displayName("Split Pages")
+          .description(
+              "Whether PDFs and TIFFs are split into one image per page, with the pages sent to the OpenOCR Server concurrently and the extracted text reassembled in page order. Only applies when the Execution Mode is Synchronous.")
+          .allowableValues("true", "false")
+          .defaultValue("false")
+          .required(true)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_PAGE_CONCURRENCY =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_PAGE_CONCURRENCY")
+          .displayName("Page Concurrency")
+          .description(
+              "Maximum number of pages from a single document which are sent to the OpenOCR Server at once, when Split Pages is true")
+          .defaultValue("4")
+          .required(true)
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_PAGE_DPI =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_PAGE_DPI")
+          .displayName("Page Resolution")
+          .description(
+              "Resolution, in dots per inch, at which pages of PDFs are rendered when Split Pages is true")
+          .defaultValue("300")
+          .required(true)
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_MAX_CONNECTIONS =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_MAX_CONNECTIONS")
+          .displayName("Max Connections")
+          .description(
+              "Maximum number of pooled connections to the OpenOCR Server. If not set, this is equal to the number of Concurrent Tasks (multiplied by Page Concurrency when Split Pages is true), or to Max In-Flight Requests when the Execution Mode is Asynchronous")
+          .required(false)
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_MAX_CONNECTIONS_PER_ROUTE =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_MAX_CONNECTIONS_PER_ROUTE")
+          .displayName("Max Connections Per Route")
+          .description(
+              "Maximum number of pooled connections to each OpenOCR Server, each of which has its own pool. If not set, this is equal to Max Connections")
+          .required(false)
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_CONNECT_TIMEOUT =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_CONNECT_TIMEOUT")
+          .displayName("Connect Timeout")
+          .description("Maximum time to wait when establishing a connection to the OpenOCR Server")
+          .defaultValue("30 secs")
+          .required(true)
+          .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_SOCKET_TIMEOUT =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_SOCKET_TIMEOUT")
+          .displayName("Socket Timeout")
+          .description(
+              "Maximum time to wait for data from the OpenOCR Server, which must allow for the time taken to perform OCR")
+          .defaultValue("5 mins")
+          .required(true)
+          .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_CONNECTION_REQUEST_TIMEOUT =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_CONNECTION_REQUEST_TIMEOUT")
+          .displayName("Connection Request Timeout")
+          .description("Maximum time to wait for a connection to become available in the pool")
+          .defaultValue("30 secs")
+          .required(true)
+          .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_IDLE_TIMEOUT =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_IDLE_TIMEOUT")
+          .displayName("Idle Connection Timeout")
+          .description(
+              "Pooled connections which have been idle for longer than this are closed, when the Execution Mode is Synchronous")
+          .defaultValue("60 secs")
+          .required(true)
+          .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_CONCURRENCY_LIMIT =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_CONCURRENCY_LIMIT")
+          .displayName("Concurrency Limit")
+          .description("How the number of requests in flight to the OpenOCR Server is limited")
+          .allowableValues(FIXED_LIMIT, ADAPTIVE_LIMIT)
+          .defaultValue(ADAPTIVE_LIMIT.getValue())
+          .required(true)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_CIRCUIT_BREAKER_THRESHOLD =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_CIRCUIT_BREAKER_THRESHOLD")
+          .displayName("Circuit Breaker Failure Percentage")
+          .description(
+              "Percentage of recent requests which must have failed because the OpenOCR Server was unavailable or overloaded for no more requests to be sent until the Circuit Breaker Open Duration has passed. Whilst open, the processor yields rather than failing FlowFiles. If 0, the circuit breaker is disabled.")
+          .defaultValue("50")
+          .required(true)
+          .addValidator(StandardValidators.createLongValidator(0, 100, true))
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_CIRCUIT_BREAKER_WINDOW =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_CIRCUIT_BREAKER_WINDOW")
+          .displayName("Circuit Breaker Window")
+          .description("Number of recent requests used to calculate the failure percentage")
+          .defaultValue("20")
+          .required(true)
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_CIRCUIT_BREAKER_OPEN_DURATION =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_CIRCUIT_BREAKER_OPEN_DURATION")
+          .displayName("Circuit Breaker Open Duration")
+          .description(
+              "How long to stop sending requests for once the circuit breaker opens, before a single trial request is sent to check whether the OpenOCR Server has recovered")
+          .defaultValue("30 secs")
+          .required(true)
+          .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_MAX_RETRIES =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_MAX_RETRIES")
+          .displayName("Max Retries")
+          .description(
+              "Number of times a FlowFile is routed to retry after a timeout, connection error or server error, before it is routed to failure instead. The count is kept in the openocr.retry.count attribute. Each retry waits for the processor's Penalty Duration, which doesn't increase with the number of retries, as NiFi can't penalize individual FlowFiles for different durations.")
+          .defaultValue("3")
+          .required(true)
+          .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_CACHE_DIRECTORY =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_CACHE_DIRECTORY")
+          .displayName("Cache Directory")
+          .description(
+              "Directory in which to cache extracted text, so that identical images processed with the same arguments aren't sent to the OpenOCR Server again. If not set, no caching is done.")
+          .required(false)
+          .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_CACHE_MAX_ENTRIES =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_CACHE_MAX_ENTRIES")
+          .displayName("Cache Max Entries")
+          .description("Maximum number of results to hold in the cache")
+          .defaultValue("10000")
+          .required(true)
+          .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+          .build();
+
+  public static final PropertyDescriptor PROPERTY_CACHE_MAX_SIZE =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_CACHE_MAX_SIZE")
+          .displayName("Cache Max Size")
+          .description("Maximum amount of disk space used by the cache")
+          .defaultValue("1 GB")
+          .required(true)
+          .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+          .build();
+
+  public static final AllowableValue METRICS_NONE =
+      new AllowableValue("none", "None", "Metrics are only published as NiFi counters");
+  public static final AllowableValue METRICS_JMX =
+      new AllowableValue(
+          "jmx",
+          "JMX",
+          "Metrics are also published as an MBean named uk.gov.dstl.nifi.openocr:type=OpenOCRProcessor,id=<processor id>");
+
+  public static final PropertyDescriptor PROPERTY_METRICS_SINK =
+      new PropertyDescriptor.Builder()
+          .name("OPENOCR_METRICS_SINK")
+          .displayName("Metrics Sink")
+          .description(
+              "Where to publish request metrics, including latency and queue wait percentiles, in addition to NiFi counters")
+          .allowableValues(METRICS_NONE, METRICS_JMX)
+          .defaultValue(METRICS_NONE.getValue())
+          .required(true)
+          .build();
+
+  public static final String ATTRIBUTE_CACHE_HIT = "openocr.cache.hit";
+  public static final String ATTRIBUTE_DURATION = "ocr.duration.ms";
+  public static final String ATTRIBUTE_ENDPOINT = "openocr.endpoint";
+  public static final String ATTRIBUTE_ORIGINAL_SIZE = "openocr.image.original.size";
+  public static final String ATTRIBUTE_SENT_SIZE = "openocr.image.sent.size";
+  public static final String ATTRIBUTE_PAGE_COUNT = "openocr.page.count";
+  public static final String ATTRIBUTE_PAGE_OFFSETS = "openocr.page.offsets";
+
+  /** Separates the text extracted from each page, when pages are split */
+  public static final String PAGE_SEPARATOR = "\f";
+
+  /** Path of the OpenOCR endpoint which accepts multipart requests */
+  public static final String FILE_UPLOAD_PATH = "/ocr-file-upload";
+
+  /** Preprocessor which converts PDFs to images, which isn't needed once pages are split */
+  private static final String CONVERT_PDF_PREPROCESSOR = "convert-pdf";
+  public static final String ATTRIBUTE_RETRY_COUNT = "openocr.retry.count";
+
+  public static final String COUNTER_CACHE_HITS = "OCR Cache Hits";
+  public static final String COUNTER_CACHE_MISSES = "OCR Cache Misses";
+  public static final String COUNTER_REQUESTS = "OCR Requests";
+  public static final String COUNTER_REQUEST_TIME = "OCR Request Time (ms)";
+  public static final String COUNTER_BYTES_SENT = "OCR Bytes Sent";
+  public static final String COUNTER_BYTES_RECEIVED = "OCR Bytes Received";
+  public static final String COUNTER_ERRORS_PREFIX = "OCR Errors - ";
+  public static final String COUNTER_RETRIES = "OCR Retries";
+  public static final String COUNTER_CIRCUIT_BREAKER_OPENED = "OCR Circuit Breaker Opened";
+
   public static final Relationship RELATIONSHIP_EXTRACTED =
       new Relationship.Builder().name("extracted").description("Text extracted by OpenOCR").build();
   public static final Relationship RELATIONSHIP_ORIGINAL_SUCCESS =
@@ -131,10 +569,40 @@ public class OpenOCRProcessor extends AbstractProcessor {
           .name("failure")
           .description("The original input file after unsuccessful text extraction by OpenOCR")
           .build();
+  public static final Relationship RELATIONSHIP_RETRY =
+      new Relationship.Builder()
+          .name("retry")
+          .description(
+              "The original input file after a timeout, connection error or server error. It is penalized, so isn't sent again until the processor's Penalty Duration has passed. The delay is the same for every retry, rather than backing off exponentially.")
+          .build();
 
   private List<PropertyDescriptor> descriptors;
   private Set<Relationship> relationships;
 
+  private volatile CloseableHttpClient httpClient;
+  private volatile CloseableHttpAsyncClient asyncHttpClient;
+  private volatile EndpointSelector endpoints;
+  private volatile ExecutorService pageExecutor;
+  private volatile OCRResultCache cache;
+  private volatile List<String> preprocessors;
+  private volatile RequestTemplate template;
+  private final Map<String, RequestTemplate> templates =
+      Collections.synchronizedMap(
+          new LinkedHashMap<String, RequestTemplate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RequestTemplate> eldest) {
+              return size() > TEMPLATE_CACHE_SIZE;
+            }
+          });
+
+  private volatile RequestMetrics metrics = new RequestMetrics();
+  private volatile ObjectName metricsName;
+
+  private volatile AdaptiveLimiter limiter;
+  private volatile CircuitBreaker circuitBreaker;
+  private final Set<AsyncRequest> inFlight = ConcurrentHashMap.newKeySet();
+  private final BlockingQueue<AsyncRequest> responded = new LinkedBlockingQueue<>();
+
   @Override
   protected void init(final ProcessorInitializationContext context) {
     this.descriptors =
@@ -142,12 +610,42 @@ public class OpenOCRProcessor extends AbstractProcessor {
             PROPERTY_OPENOCR_SCHEME,
             PROPERTY_OPENOCR_HOST,
             PROPERTY_OPENOCR_PORT,
+            PROPERTY_OPENOCR_ENDPOINTS,
+            PROPERTY_ENDPOINT_FAILURE_THRESHOLD,
+            PROPERTY_ENDPOINT_EJECTION_DURATION,
             PROPERTY_PREPROCESSORS,
-            PROPERTY_ENGINE_ARGS);
+            PROPERTY_ENGINE_ARGS,
+            PROPERTY_IMAGE_URL,
+            PROPERTY_REQUEST_MODE,
+            PROPERTY_EXECUTION_MODE,
+            PROPERTY_MAX_IN_FLIGHT,
+            PROPERTY_SCALE_IMAGES,
+            PROPERTY_MAX_IMAGE_DIMENSION,
+            PROPERTY_SPLIT_PAGES,
+            PROPERTY_PAGE_CONCURRENCY,
+            PROPERTY_PAGE_DPI,
+            PROPERTY_MAX_CONNECTIONS,
+            PROPERTY_MAX_CONNECTIONS_PER_ROUTE,
+            PROPERTY_CONNECT_TIMEOUT,
+            PROPERTY_SOCKET_TIMEOUT,
+            PROPERTY_CONNECTION_REQUEST_TIMEOUT,
+            PROPERTY_IDLE_TIMEOUT,
+            PROPERTY_CONCURRENCY_LIMIT,
+            PROPERTY_CIRCUIT_BREAKER_THRESHOLD,
+            PROPERTY_CIRCUIT_BREAKER_WINDOW,
+            PROPERTY_CIRCUIT_BREAKER_OPEN_DURATION,
+            PROPERTY_MAX_RETRIES,
+            PROPERTY_CACHE_DIRECTORY,
+            PROPERTY_CACHE_MAX_ENTRIES,
+            PROPERTY_CACHE_MAX_SIZE,
+            PROPERTY_METRICS_SINK);
 
     this.relationships =
         Set.of(
-            RELATIONSHIP_EXTRACTED, RELATIONSHIP_ORIGINAL_SUCCESS, RELATIONSHIP_ORIGINAL_FAILURE);
+            RELATIONSHIP_EXTRACTED,
+            RELATIONSHIP_ORIGINAL_SUCCESS,
+            RELATIONSHIP_ORIGINAL_FAILURE,
+            RELATIONSHIP_RETRY);
   }
 
   @Override
@@ -160,135 +658,1358 @@ public class OpenOCRProcessor extends AbstractProcessor {
     return descriptors;
   }
 
-  @Override
-  public void onTrigger(final ProcessContext context, final ProcessSession session)
-      throws ProcessException {
-    // Get input
-    FlowFile flowFile = session.get();
-    if (flowFile == null) {
-      return;
+  /**
+   * Creates a pooled HTTP client which is shared by all concurrent tasks, so that connections to
+   * the OpenOCR servers are kept alive and reused between FlowFiles, and the selector which
+   * chooses which server each request goes to
+   */
+  @OnScheduled
+  public void createHttpClient(final ProcessContext context) {
+    String scheme = context.getProperty(PROPERTY_OPENOCR_SCHEME).getValue();
+    int port = context.getProperty(PROPERTY_OPENOCR_PORT).asInteger();
+
+    List<URI> uris;
+    try {
+      if (context.getProperty(PROPERTY_OPENOCR_ENDPOINTS).isSet()) {
+        uris =
+            parseEndpoints(
+                scheme, context.getProperty(PROPERTY_OPENOCR_ENDPOINTS).getValue(), port);
+      } else {
+        String host = context.getProperty(PROPERTY_OPENOCR_HOST).getValue();
+        uris = List.of(endpointUri(scheme, host, port));
+      }
+    } catch (IllegalArgumentException e) {
+      throw new ProcessException("Could not parse URI", e);
     }
-    // Convert input to an OpenOCR Request
-    // TODO: Handle URLs as well?
-    OpenOCRRequestBase64 request;
-    try (InputStream is = session.read(flowFile)) {
-      request = OpenOCRRequestBase64.fromUnencoded(is);
-    } catch (IOException ioe) {
-      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
-      throw new ProcessException("Unable to encode data as Base64", ioe);
+
+    endpoints =
+        new EndpointSelector(
+            uris,
+            context.getProperty(PROPERTY_ENDPOINT_FAILURE_THRESHOLD).asInteger(),
+            context
+                .getProperty(PROPERTY_ENDPOINT_EJECTION_DURATION)
+                .asTimePeriod(TimeUnit.NANOSECONDS));
+
+    boolean async = isAsynchronous(context);
+    int maxInFlight = context.getProperty(PROPERTY_MAX_IN_FLIGHT).asInteger();
+
+    int maxConnections;
+    if (context.getProperty(PROPERTY_MAX_CONNECTIONS).isSet()) {
+      maxConnections = context.getProperty(PROPERTY_MAX_CONNECTIONS).asInteger();
+    } else if (async) {
+      maxConnections = maxInFlight;
+    } else {
+      maxConnections = Math.max(1, context.getMaxConcurrentTasks());
+      if (isSplittingPages(context)) {
+        maxConnections *= context.getProperty(PROPERTY_PAGE_CONCURRENCY).asInteger();
+      }
     }
+    int maxConnectionsPerRoute =
+        context.getProperty(PROPERTY_MAX_CONNECTIONS_PER_ROUTE).isSet()
+            ? context.getProperty(PROPERTY_MAX_CONNECTIONS_PER_ROUTE).asInteger()
+            : maxConnections;
 
-    // Check there's content
-    if (request.isEmpty()) {
-      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
-      throw new ProcessException("Can't process empty data");
+    RequestConfig requestConfig =
+        RequestConfig.custom()
+            .setConnectTimeout(timeoutMillis(context, PROPERTY_CONNECT_TIMEOUT))
+            .setSocketTimeout(timeoutMillis(context, PROPERTY_SOCKET_TIMEOUT))
+            .setConnectionRequestTimeout(
+                timeoutMillis(context, PROPERTY_CONNECTION_REQUEST_TIMEOUT))
+            .build();
+
+    if (async) {
+      asyncHttpClient =
+          HttpAsyncClients.custom()
+              .setMaxConnTotal(maxConnections)
+              .setMaxConnPerRoute(maxConnectionsPerRoute)
+              .setDefaultRequestConfig(requestConfig)
+              .build();
+      asyncHttpClient.start();
+      return;
     }
 
-    // Parse preprocessors
-    if (context.getProperty(PROPERTY_PREPROCESSORS).isSet()) {
-      List<String> preprocessors =
-          Arrays.asList(context.getProperty(PROPERTY_PREPROCESSORS).getValue().split("\\s*,\\s*"));
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
 
-      if (preprocessors.size() > 0) {
-        request.setPreprocessors(preprocessors);
-      }
+    httpClient =
+        HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .evictExpiredConnections()
+            .evictIdleConnections(
+                context.getProperty(PROPERTY_IDLE_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS),
+                TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  /**
+   * Creates the limiter on requests in flight, which is bounded by Max In-Flight Requests or the
+   * number of Concurrent Tasks, and the circuit breaker
+   */
+  @OnScheduled
+  public void createLimits(final ProcessContext context) {
+    int maxLimit =
+        isAsynchronous(context)
+            ? context.getProperty(PROPERTY_MAX_IN_FLIGHT).asInteger()
+            : Math.max(1, context.getMaxConcurrentTasks());
+    String limit = context.getProperty(PROPERTY_CONCURRENCY_LIMIT).getValue();
+    limiter = new AdaptiveLimiter(maxLimit, ADAPTIVE_LIMIT.getValue().equals(limit));
+
+    circuitBreaker =
+        new CircuitBreaker(
+            context.getProperty(PROPERTY_CIRCUIT_BREAKER_THRESHOLD).asInteger() / 100.0,
+            context.getProperty(PROPERTY_CIRCUIT_BREAKER_WINDOW).asInteger(),
+            context
+                .getProperty(PROPERTY_CIRCUIT_BREAKER_OPEN_DURATION)
+                .asTimePeriod(TimeUnit.NANOSECONDS));
+  }
+
+  /**
+   * Parses the pre-processors and engine arguments, so that they aren't parsed for every FlowFile.
+   * If the engine arguments use Expression Language, they are instead parsed as they are evaluated,
+   * and the most recently used are kept.
+   */
+  @OnScheduled
+  public void compileRequestTemplate(final ProcessContext context) throws IOException {
+    templates.clear();
+
+    PropertyValue preprocessorsValue = context.getProperty(PROPERTY_PREPROCESSORS);
+    preprocessors =
+        preprocessorsValue.isSet()
+            ? List.of(preprocessorsValue.getValue().split("\\s*,\\s*"))
+            : List.of();
+
+    PropertyValue engineArgs = context.getProperty(PROPERTY_ENGINE_ARGS);
+    template =
+        engineArgs.isExpressionLanguagePresent()
+            ? null
+            : RequestTemplate.compile(preprocessors, engineArgs.getValue());
+  }
+
+  /** Creates the result cache, if a cache directory has been set */
+  @OnScheduled
+  public void createCache(final ProcessContext context) {
+    if (!context.getProperty(PROPERTY_CACHE_DIRECTORY).isSet()) {
+      cache = null;
+      return;
+    }
+
+    try {
+      cache =
+          new OCRResultCache(
+              Paths.get(context.getProperty(PROPERTY_CACHE_DIRECTORY).getValue()),
+              context.getProperty(PROPERTY_CACHE_MAX_ENTRIES).asInteger(),
+              context.getProperty(PROPERTY_CACHE_MAX_SIZE).asDataSize(DataUnit.B).longValue());
+    } catch (IOException e) {
+      throw new ProcessException("Could not create cache", e);
     }
+  }
 
-    // Parse engine arguments
-    if (context.getProperty(PROPERTY_ENGINE_ARGS).isSet()) {
+  /** Creates new metrics, and publishes them to the configured sink */
+  @OnScheduled
+  public void registerMetrics(final ProcessContext context) {
+    metrics = new RequestMetrics();
+
+    if (METRICS_JMX.getValue().equals(context.getProperty(PROPERTY_METRICS_SINK).getValue())) {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
       try {
-        // TODO: We could optimise this by only doing it when the configuration changes
-        Map<String, Object> arguments =
-            OBJECT_MAPPER.readValue(
-                context
-                    .getProperty(PROPERTY_ENGINE_ARGS)
-                    .evaluateAttributeExpressions(flowFile)
-                    .getValue(),
-                new TypeReference<HashMap<String, Object>>() {});
-        request.setEngineArgs(arguments);
-      } catch (IOException e) {
-        session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
-        throw new ProcessException("Can't parse engine arguments", e);
+        ObjectName name =
+            new ObjectName("uk.gov.dstl.nifi.openocr:type=OpenOCRProcessor,id=" + getIdentifier());
+        if (server.isRegistered(name)) {
+          server.unregisterMBean(name);
+        }
+        server.registerMBean(metrics, name);
+        metricsName = name;
+      } catch (JMException e) {
+        getLogger().warn("Could not register metrics with JMX", e);
       }
     }
+  }
 
-    // Serialize request object to JSON
-    String json;
-    try {
-      json = OBJECT_MAPPER.writeValueAsString(request);
-    } catch (JsonProcessingException e) {
-      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
-      throw new ProcessException("Could not serialize request", e);
+  /** Removes the metrics from JMX, if they were registered */
+  @OnStopped
+  public void unregisterMetrics() {
+    if (metricsName == null) {
+      return;
     }
 
-    // Send request to OpenOCR
-    CloseableHttpClient httpClient = HttpClients.createDefault();
-    CloseableHttpResponse response = null;
-
-    String extracted;
-    Charset charset;
     try {
-      URL url =
-          new URL(
-              context.getProperty(PROPERTY_OPENOCR_SCHEME).getValue(),
-              context.getProperty(PROPERTY_OPENOCR_HOST).getValue(),
-              context.getProperty(PROPERTY_OPENOCR_PORT).asInteger(),
-              "/ocr");
-
-      HttpPost postRequest = new HttpPost(url.toURI());
-      postRequest.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
-
-      // Check we get the expected response
-      response = httpClient.execute(postRequest);
-      if (response.getStatusLine().getStatusCode() != 200) {
-        session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
-        throw new ProcessException(
-            "OpenOCR Server responded with status code "
-                + response.getStatusLine().getStatusCode()
-                + " ("
-                + response.getStatusLine().getReasonPhrase()
-                + ")");
-      }
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+    } catch (JMException e) {
+      getLogger().warn("Could not unregister metrics from JMX", e);
+    }
+    metricsName = null;
+  }
 
-      // Extract content from response
-      HttpEntity entity = response.getEntity();
+  /**
+   * Creates the executor which sends pages to the OpenOCR Server, if pages are being split. Each
+   * concurrent task can have up to Page Concurrency pages in flight.
+   */
+  @OnScheduled
+  public void createPageExecutor(final ProcessContext context) {
+    if (!isSplittingPages(context)) {
+      pageExecutor = null;
+      return;
+    }
 
-      charset = ContentType.getOrDefault(entity).getCharset();
-      extracted = IOUtils.toString(entity.getContent(), charset);
+    int threads =
+        Math.max(1, context.getMaxConcurrentTasks())
+            * context.getProperty(PROPERTY_PAGE_CONCURRENCY).asInteger();
+    pageExecutor =
+        Executors.newFixedThreadPool(
+            threads,
+            r -> {
+              Thread t = new Thread(r, "OpenOCR Pages " + getIdentifier());
+              t.setDaemon(true);
+              return t;
+            });
+  }
 
-    } catch (IOException e) {
-      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
-      throw new ProcessException("Could not communicate with OpenOCR Server", e);
-    } catch (URISyntaxException e) {
-      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
-      throw new ProcessException("Could not parse URI", e);
-    } finally {
-      silentlyClose(response);
-      silentlyClose(httpClient);
+  /** Stops the page executor, cancelling any requests for pages which are still running */
+  @OnStopped
+  public void shutdownPageExecutor() {
+    if (pageExecutor != null) {
+      pageExecutor.shutdownNow();
+      pageExecutor = null;
     }
+  }
 
-    // Write response back to FlowFile
-    FlowFile f = session.create(flowFile);
+  /**
+   * Closes the pooled HTTP client, and with it any open connections. Any asynchronous requests
+   * which have already been responded to are completed, and the remainder are cancelled and their
+   * FlowFiles returned to the input queue.
+   */
+  @OnStopped
+  public void closeHttpClient() {
+    AsyncRequest request;
+    while ((request = responded.poll()) != null) {
+      complete(request);
+    }
 
-    f = session.write(f, outputStream -> IOUtils.write(extracted, outputStream, charset));
+    silentlyClose(asyncHttpClient);
+    asyncHttpClient = null;
 
-    session.transfer(f, RELATIONSHIP_EXTRACTED);
-    session.transfer(flowFile, RELATIONSHIP_ORIGINAL_SUCCESS);
+    for (AsyncRequest r : inFlight) {
+      r.session.rollback();
+    }
+    inFlight.clear();
+    responded.clear();
 
-    session.commit();
+    silentlyClose(httpClient);
+    httpClient = null;
+  }
+
+  @Override
+  public void onTrigger(final ProcessContext context, final ProcessSessionFactory sessionFactory)
+      throws ProcessException {
+    if (isAsynchronous(context)) {
+      onTriggerAsynchronous(context, sessionFactory);
+      return;
+    }
+
+    final ProcessSession session = sessionFactory.createSession();
+    try {
+      onTrigger(context, session);
+      session.commit();
+    } catch (final Throwable t) {
+      session.rollback(true);
+      throw t;
+    }
   }
 
   /**
-   * Silently closes a Closeable, by ignoring any exceptions thrown. Also performs a null pointer
-   * check.
+   * Processes a single FlowFile, waiting for the OpenOCR server to respond. Yields if there is no
+   * FlowFile, the circuit breaker is open or the limit on requests in flight has been reached.
    */
-  private void silentlyClose(Closeable c) {
-    if (c == null) return;
+  public void onTrigger(final ProcessContext context, final ProcessSession session)
+      throws ProcessException {
+    if (!acquirePermit(context)) {
+      context.yield();
+      return;
+    }
 
+    Outcome outcome = Outcome.IGNORED;
     try {
-      c.close();
-    } catch (Exception e) {
-      // Do nothing
+      outcome = sendRequest(context, session);
+    } finally {
+      releasePermit(session, outcome);
+    }
+  }
+
+  /** Sends a single FlowFile to the OpenOCR server, and returns how the server handled it */
+  private Outcome sendRequest(final ProcessContext context, final ProcessSession session) {
+    // Get input
+    FlowFile flowFile = session.get();
+    if (flowFile == null) {
+      context.yield();
+      return Outcome.IGNORED;
+    }
+
+    recordQueueWait(flowFile);
+
+    RequestTemplate requestTemplate;
+    OpenOCRRequest request;
+    try {
+      requestTemplate = requestTemplate(context, session, flowFile);
+      request = createRequest(context, session, flowFile, requestTemplate);
+    } catch (ProcessException e) {
+      recordError(session, RequestMetrics.ERROR_INVALID_REQUEST);
+      throw e;
+    }
+
+    // Check whether we've already extracted text from this image
+    String cacheKey = null;
+    if (cache != null) {
+      cacheKey = cacheKey(context, session, flowFile, request);
+      if (transferCached(session, flowFile, cacheKey)) {
+        session.commit();
+        return Outcome.IGNORED;
+      }
+    }
+
+    // Images referenced by URL are fetched by the server, so aren't split or scaled here
+    boolean byUrl = request instanceof OpenOCRRequestUrl;
+    if (pageExecutor != null && !byUrl) {
+      PageSplitter.Format format = detectFormat(session, flowFile);
+      if (format != null) {
+        return sendPages(context, session, flowFile, request, cacheKey, format);
+      }
+    }
+
+    // Scale the image down first, if enabled, in which case it is held in memory
+    byte[] scaled = null;
+    if (context.getProperty(PROPERTY_SCALE_IMAGES).asBoolean() && !byUrl) {
+      scaled = scaleImage(context, session, flowFile, request);
+      flowFile = putImageSizes(session, flowFile, scaled.length);
+    }
+
+    // Send request to OpenOCR
+    int statusCode;
+    String reasonPhrase;
+    String extracted = null;
+    Charset charset = null;
+    long sent;
+    long received = 0;
+    long duration;
+    Endpoint endpoint = endpoints.select();
+    boolean healthy = false;
+    try (InputStream is = byUrl ? null : openContent(session, flowFile, scaled)) {
+      HttpPost postRequest = new HttpPost(requestUri(endpoint, request));
+      HttpEntity requestEntity = createEntity(context, request, requestTemplate, is);
+      postRequest.setEntity(requestEntity);
+
+      long start = System.nanoTime();
+      try (CloseableHttpResponse response = httpClient.execute(postRequest)) {
+        statusCode = response.getStatusLine().getStatusCode();
+        reasonPhrase = response.getStatusLine().getReasonPhrase();
+        healthy = !isRetryable(statusCode);
+
+        // Extract content from response
+        if (statusCode == 200) {
+          HttpEntity entity = response.getEntity();
+
+          charset = ContentType.getOrDefault(entity).getCharset();
+          CountingInputStream content = new CountingInputStream(entity.getContent());
+          extracted = IOUtils.toString(content, charset);
+          received = content.getByteCount();
+        }
+      }
+      duration = System.nanoTime() - start;
+      sent = bytesSent(requestEntity);
+    } catch (IOException e) {
+      recordError(session, RequestMetrics.errorCategory(e));
+      getLogger()
+          .warn("Could not communicate with OpenOCR Server for {}", new Object[] {flowFile}, e);
+      retry(context, session, flowFile);
+      session.commit();
+      return Outcome.OVERLOADED;
+    } finally {
+      releaseEndpoint(endpoint, healthy);
+    }
+
+    recordRequest(session, sent, received, duration);
+    flowFile = putRequestAttributes(session, flowFile, endpoint, duration);
+
+    // Check we got the expected response
+    if (statusCode != 200) {
+      recordError(session, RequestMetrics.errorCategory(statusCode));
+      if (isRetryable(statusCode)) {
+        getLogger()
+            .warn(
+                "OpenOCR Server responded with status code {} ({}) for {}",
+                new Object[] {statusCode, reasonPhrase, flowFile});
+        retry(context, session, flowFile);
+        session.commit();
+        return Outcome.OVERLOADED;
+      }
+
+      getLogger()
+          .error(
+              "OpenOCR Server responded with status code {} ({}) for {}",
+              new Object[] {statusCode, reasonPhrase, flowFile});
+      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
+      session.commit();
+      return Outcome.IGNORED;
+    }
+
+    addToCache(cacheKey, extracted);
+    transferExtracted(session, flowFile, extracted, charset, false, Map.of());
+
+    session.commit();
+    return Outcome.SUCCESS;
+  }
+
+  /**
+   * Completes any requests which have been responded to, and then sends new requests until there
+   * are no more FlowFiles, the limit on requests in flight has been reached or the circuit breaker
+   * is open. Each request has its own session, which is committed once the request is complete.
+   *
+   * <p>If nothing more can be sent, the task waits briefly for a request in flight to respond
+   * rather than being triggered again straight away, or yields if there are none.
+   */
+  private void onTriggerAsynchronous(
+      final ProcessContext context, final ProcessSessionFactory sessionFactory) {
+    AsyncRequest completed;
+    while ((completed = responded.poll()) != null) {
+      complete(completed);
+    }
+
+    while (acquirePermit(context)) {
+      ProcessSession session = sessionFactory.createSession();
+      FlowFile flowFile = session.get();
+      if (flowFile == null) {
+        releasePermit(session, Outcome.IGNORED);
+        awaitResponse(context);
+        return;
+      }
+
+      recordQueueWait(flowFile);
+
+      // Read the content now, as the session can't be used by the thread receiving the response
+      HttpPost postRequest = new HttpPost();
+      OpenOCRRequest request;
+      String cacheKey = null;
+      try {
+        RequestTemplate requestTemplate = requestTemplate(context, session, flowFile);
+        request = createRequest(context, session, flowFile, requestTemplate);
+
+        if (cache != null) {
+          cacheKey = cacheKey(context, session, flowFile, request);
+          if (transferCached(session, flowFile, cacheKey)) {
+            session.commit();
+            releasePermit(session, Outcome.IGNORED);
+            continue;
+          }
+        }
+
+        boolean byUrl = request instanceof OpenOCRRequestUrl;
+        byte[] scaled = null;
+        if (context.getProperty(PROPERTY_SCALE_IMAGES).asBoolean() && !byUrl) {
+          scaled = scaleImage(context, session, flowFile, request);
+          flowFile = putImageSizes(session, flowFile, scaled.length);
+        }
+
+        try (InputStream is = byUrl ? null : openContent(session, flowFile, scaled)) {
+          postRequest.setEntity(
+              new BufferedHttpEntity(createEntity(context, request, requestTemplate, is)));
+        } catch (IOException e) {
+          session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
+          throw new ProcessException("Unable to read data", e);
+        }
+      } catch (ProcessException e) {
+        recordError(session, RequestMetrics.ERROR_INVALID_REQUEST);
+        getLogger().error("Unable to send {} to OpenOCR Server", new Object[] {flowFile}, e);
+        session.commit();
+        releasePermit(session, Outcome.IGNORED);
+        continue;
+      }
+
+      Endpoint endpoint = endpoints.select();
+      postRequest.setURI(requestUri(endpoint, request));
+
+      AsyncRequest asyncRequest =
+          new AsyncRequest(
+              context,
+              session,
+              flowFile,
+              endpoint,
+              cacheKey,
+              postRequest.getEntity().getContentLength());
+      inFlight.add(asyncRequest);
+      asyncHttpClient.execute(postRequest, asyncRequest);
+    }
+
+    awaitResponse(context);
+  }
+
+  /**
+   * Waits briefly for a request in flight to be responded to, and completes it if one is. If there
+   * are no requests in flight, the processor yields instead.
+   */
+  private void awaitResponse(final ProcessContext context) {
+    if (inFlight.isEmpty()) {
+      context.yield();
+      return;
+    }
+
+    try {
+      AsyncRequest request = responded.poll(RESPONSE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+      if (request != null) {
+        complete(request);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Transfers a request which has been responded to, and commits its session */
+  private void complete(AsyncRequest request) {
+    // Ignore requests which responded after the processor was stopped, as they've been rolled back
+    if (!inFlight.remove(request)) {
+      return;
+    }
+
+    ProcessSession session = request.session;
+    if (request.exception != null) {
+      recordError(session, RequestMetrics.errorCategory(request.exception));
+      getLogger()
+          .warn(
+              "Could not communicate with OpenOCR Server for {}",
+              new Object[] {request.flowFile},
+              request.exception);
+      retry(request.context, session, request.flowFile);
+      releasePermit(session, Outcome.OVERLOADED);
+      session.commit();
+      return;
+    }
+
+    recordRequest(session, request.sent, request.received, request.duration);
+    FlowFile flowFile =
+        putRequestAttributes(session, request.flowFile, request.endpoint, request.duration);
+
+    Outcome outcome;
+    if (request.statusCode == 200) {
+      addToCache(request.cacheKey, request.extracted);
+      transferExtracted(session, flowFile, request.extracted, request.charset, false, Map.of());
+      outcome = Outcome.SUCCESS;
+    } else if (isRetryable(request.statusCode)) {
+      recordError(session, RequestMetrics.errorCategory(request.statusCode));
+      getLogger()
+          .warn(
+              "OpenOCR Server responded with status code {} ({}) for {}",
+              new Object[] {request.statusCode, request.reasonPhrase, flowFile});
+      retry(request.context, session, flowFile);
+      outcome = Outcome.OVERLOADED;
+    } else {
+      recordError(session, RequestMetrics.errorCategory(request.statusCode));
+      getLogger()
+          .error(
+              "OpenOCR Server responded with status code {} ({}) for {}",
+              new Object[] {request.statusCode, request.reasonPhrase, flowFile});
+      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
+      outcome = Outcome.IGNORED;
+    }
+
+    releasePermit(session, outcome);
+    session.commit();
+  }
+
+  /**
+   * Splits a document into pages, and sends them to the OpenOCR Server concurrently using the page
+   * executor. Pages are rendered as they are needed, so at most Page Concurrency pages are held in
+   * memory. Once every page has been extracted, the text is joined in page order, separated by
+   * {@link #PAGE_SEPARATOR}, and the offset at which each page starts is added as an attribute.
+   *
+   * <p>If any page fails, the remaining pages are cancelled and the whole document is retried or
+   * failed in the same way as a single request.
+   */
+  private Outcome sendPages(
+      final ProcessContext context,
+      final ProcessSession session,
+      FlowFile flowFile,
+      OpenOCRRequest request,
+      String cacheKey,
+      PageSplitter.Format format) {
+    int concurrency = context.getProperty(PROPERTY_PAGE_CONCURRENCY).asInteger();
+    int dpi = context.getProperty(PROPERTY_PAGE_DPI).asInteger();
+
+    Deque<Future<PageResponse>> pending = new ArrayDeque<>();
+    List<PageResponse> pages = new ArrayList<>();
+    PageResponse failed = null;
+
+    long start = System.nanoTime();
+    try (InputStream is = session.read(flowFile);
+        PageSplitter splitter = PageSplitter.open(format, is, dpi)) {
+      int pageCount = splitter.getPageCount();
+      for (int i = 0; i < pageCount; i++) {
+        if (pending.size() >= concurrency) {
+          failed = awaitPage(pending, pages);
+          if (failed != null) {
+            break;
+          }
+        }
+
+        byte[] image = splitter.renderPage(i);
+        pending.add(pageExecutor.submit(() -> sendPage(request, image)));
+      }
+
+      while (!pending.isEmpty() && failed == null) {
+        failed = awaitPage(pending, pages);
+      }
+    } catch (IOException e) {
+      cancel(pending);
+      recordError(session, RequestMetrics.ERROR_INVALID_REQUEST);
+      getLogger()
+          .error("Unable to split {} into pages for {}", new Object[] {format, flowFile}, e);
+      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
+      session.commit();
+      return Outcome.IGNORED;
+    } catch (ExecutionException e) {
+      cancel(pending);
+      Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      recordPages(session, pages);
+      recordError(session, RequestMetrics.errorCategory(cause));
+      getLogger()
+          .warn("Could not communicate with OpenOCR Server for {}", new Object[] {flowFile}, cause);
+      retry(context, session, flowFile);
+      session.commit();
+      return Outcome.OVERLOADED;
+    } catch (InterruptedException e) {
+      cancel(pending);
+      Thread.currentThread().interrupt();
+      throw new ProcessException("Interrupted waiting for pages", e);
+    }
+    cancel(pending);
+
+    recordPages(session, pages);
+    flowFile =
+        session.putAttribute(
+            flowFile,
+            ATTRIBUTE_DURATION,
+            String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+
+    if (failed != null) {
+      recordError(session, RequestMetrics.errorCategory(failed.statusCode));
+      if (isRetryable(failed.statusCode)) {
+        getLogger()
+            .warn(
+                "OpenOCR Server responded with status code {} ({}) for a page of {}",
+                new Object[] {failed.statusCode, failed.reasonPhrase, flowFile});
+        retry(context, session, flowFile);
+        session.commit();
+        return Outcome.OVERLOADED;
+      }
+
+      getLogger()
+          .error(
+              "OpenOCR Server responded with status code {} ({}) for a page of {}",
+              new Object[] {failed.statusCode, failed.reasonPhrase, flowFile});
+      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
+      session.commit();
+      return Outcome.IGNORED;
+    }
+
+    StringBuilder extracted = new StringBuilder();
+    StringJoiner offsets = new StringJoiner(",");
+    for (PageResponse page : pages) {
+      if (extracted.length() > 0) {
+        extracted.append(PAGE_SEPARATOR);
+      }
+      offsets.add(String.valueOf(extracted.length()));
+      extracted.append(page.extracted);
+    }
+
+    Map<String, String> attributes = new HashMap<>();
+    attributes.put(ATTRIBUTE_PAGE_COUNT, String.valueOf(pages.size()));
+    attributes.put(ATTRIBUTE_PAGE_OFFSETS, offsets.toString());
+
+    String text = extracted.toString();
+    addToCache(cacheKey, text);
+    transferExtracted(session, flowFile, text, StandardCharsets.UTF_8, false, attributes);
+
+    session.commit();
+    return Outcome.SUCCESS;
+  }
+
+  /**
+   * Waits for the oldest pending page, and adds it to the list of pages
+   *
+   * @return The page, if the OpenOCR Server didn't respond successfully, otherwise null
+   */
+  private static PageResponse awaitPage(
+      Deque<Future<PageResponse>> pending, List<PageResponse> pages)
+      throws ExecutionException, InterruptedException {
+    PageResponse page = pending.removeFirst().get();
+    pages.add(page);
+
+    return page.statusCode == 200 ? null : page;
+  }
+
+  /** Cancels any pages which are still pending */
+  private static void cancel(Deque<Future<PageResponse>> pending) {
+    for (Future<PageResponse> f : pending) {
+      f.cancel(true);
+    }
+    pending.clear();
+  }
+
+  /**
+   * Sends a single page of a document to the OpenOCR Server, on a page executor thread. As the
+   * session can't be used from this thread, the outcome is recorded once the page has been awaited.
+   */
+  private PageResponse sendPage(OpenOCRRequest request, byte[] image) throws IOException {
+    OpenOCRRequest pageRequest = pageRequest(request);
+    HttpEntity entity;
+    if (pageRequest instanceof OpenOCRRequestMultipart) {
+      OpenOCRRequestMultipart multipart = (OpenOCRRequestMultipart) pageRequest;
+      multipart.setContent(new ByteArrayInputStream(image));
+      multipart.setContentType(ContentType.IMAGE_PNG.getMimeType());
+      entity = new OpenOCRRequestMultipartEntity(multipart);
+    } else {
+      entity = new OpenOCRRequestBase64Entity(pageRequest, new ByteArrayInputStream(image));
+    }
+
+    Endpoint endpoint = endpoints.select();
+    boolean healthy = false;
+    try {
+      HttpPost postRequest = new HttpPost(requestUri(endpoint, pageRequest));
+      postRequest.setEntity(entity);
+
+      PageResponse page = new PageResponse();
+      long start = System.nanoTime();
+      try (CloseableHttpResponse response = httpClient.execute(postRequest)) {
+        page.statusCode = response.getStatusLine().getStatusCode();
+        page.reasonPhrase = response.getStatusLine().getReasonPhrase();
+        healthy = !isRetryable(page.statusCode);
+
+        if (page.statusCode == 200) {
+          HttpEntity responseEntity = response.getEntity();
+
+          Charset charset = ContentType.getOrDefault(responseEntity).getCharset();
+          CountingInputStream content = new CountingInputStream(responseEntity.getContent());
+          page.extracted = IOUtils.toString(content, charset);
+          page.received = content.getByteCount();
+        }
+      }
+      page.duration = System.nanoTime() - start;
+      page.sent = bytesSent(entity);
+
+      return page;
+    } finally {
+      releaseEndpoint(endpoint, healthy);
+    }
+  }
+
+  /** Records the requests made for pages which the OpenOCR Server responded to */
+  private void recordPages(final ProcessSession session, List<PageResponse> pages) {
+    for (PageResponse page : pages) {
+      recordRequest(session, page.sent, page.received, page.duration);
+    }
+  }
+
+  /**
+   * Creates the request used for each page, which is the same as the request for the whole
+   * document except that PDFs no longer need converting
+   */
+  private static OpenOCRRequest pageRequest(OpenOCRRequest request) {
+    OpenOCRRequest pageRequest =
+        request instanceof OpenOCRRequestMultipart
+            ? new OpenOCRRequestMultipart()
+            : new OpenOCRRequestBase64();
+    pageRequest.setEngine(request.getEngine());
+    pageRequest.setEngineArgs(request.getEngineArgs());
+
+    List<String> preprocessors = new ArrayList<>(request.getPreprocessors());
+    preprocessors.remove(CONVERT_PDF_PREPROCESSOR);
+    pageRequest.setPreprocessors(preprocessors);
+
+    return pageRequest;
+  }
+
+  /**
+   * Reads the image in a FlowFile and scales it down using {@link ImageScaler}
+   *
+   * @return The scaled image, or the original image if it couldn't be scaled or scaling it made
+   *     it larger
+   */
+  private static byte[] scaleImage(
+      final ProcessContext context,
+      final ProcessSession session,
+      FlowFile flowFile,
+      OpenOCRRequest request) {
+    byte[] original;
+    try (InputStream is = session.read(flowFile)) {
+      original = IOUtils.toByteArray(is);
+    } catch (IOException e) {
+      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
+      throw new ProcessException("Unable to read data", e);
+    }
+
+    byte[] scaled =
+        ImageScaler.scale(original, context.getProperty(PROPERTY_MAX_IMAGE_DIMENSION).asInteger());
+
+    if (scaled == null || scaled.length >= original.length) {
+      return original;
+    }
+
+    // Scaled images are always re-encoded as PNG, whatever the original format was
+    if (request instanceof OpenOCRRequestMultipart) {
+      ((OpenOCRRequestMultipart) request).setContentType(ContentType.IMAGE_PNG.getMimeType());
+    }
+
+    return scaled;
+  }
+
+  /** Adds the size of the original image, and of the image sent after scaling, as attributes */
+  private static FlowFile putImageSizes(
+      final ProcessSession session, FlowFile flowFile, long sentSize) {
+    Map<String, String> attributes = new HashMap<>();
+    attributes.put(ATTRIBUTE_ORIGINAL_SIZE, String.valueOf(flowFile.getSize()));
+    attributes.put(ATTRIBUTE_SENT_SIZE, String.valueOf(sentSize));
+
+    return session.putAllAttributes(flowFile, attributes);
+  }
+
+  /** Opens the content to send for a FlowFile, which is the scaled image if there is one */
+  private static InputStream openContent(
+      final ProcessSession session, FlowFile flowFile, byte[] scaled) {
+    return scaled == null ? session.read(flowFile) : new ByteArrayInputStream(scaled);
+  }
+
+  /** Returns the format of a FlowFile if it is a document which can be split into pages */
+  private static PageSplitter.Format detectFormat(
+      final ProcessSession session, FlowFile flowFile) {
+    byte[] header = new byte[PageSplitter.HEADER_LENGTH];
+    int read;
+    try (InputStream is = session.read(flowFile)) {
+      read = IOUtils.read(is, header);
+    } catch (IOException e) {
+      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
+      throw new ProcessException("Unable to read data", e);
+    }
+
+    return PageSplitter.detect(Arrays.copyOf(header, read));
+  }
+
+  /**
+   * Creates an OpenOCR Request, which either references the image by URL or to which the content
+   * will be added when it is sent, in which case there must be content. If the request can't be
+   * created, the FlowFile is transferred to the failure relationship and a ProcessException is
+   * thrown.
+   */
+  private OpenOCRRequest createRequest(
+      final ProcessContext context,
+      final ProcessSession session,
+      FlowFile flowFile,
+      RequestTemplate requestTemplate) {
+    String url =
+        context.getProperty(PROPERTY_IMAGE_URL).evaluateAttributeExpressions(flowFile).getValue();
+
+    boolean byUrl = url != null && !url.isEmpty();
+
+    // Check there's content, unless the image is referenced by URL
+    if (!byUrl && flowFile.getSize() == 0) {
+      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
+      throw new ProcessException("Can't process empty data");
+    }
+
+    OpenOCRRequest request;
+    if (byUrl) {
+      try {
+        new URL(url);
+      } catch (MalformedURLException e) {
+        session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
+        throw new ProcessException("Invalid image URL " + url, e);
+      }
+
+      OpenOCRRequestUrl urlRequest = new OpenOCRRequestUrl();
+      urlRequest.setUrl(url);
+      request = urlRequest;
+    } else if (MULTIPART.getValue().equals(context.getProperty(PROPERTY_REQUEST_MODE).getValue())) {
+      OpenOCRRequestMultipart multipart = new OpenOCRRequestMultipart();
+      String mimeType = flowFile.getAttribute(CoreAttributes.MIME_TYPE.key());
+      if (mimeType != null && mimeType.startsWith("image/")) {
+        multipart.setContentType(mimeType);
+      }
+      request = multipart;
+    } else {
+      request = new OpenOCRRequestBase64();
+    }
+
+    requestTemplate.apply(request);
+
+    return request;
+  }
+
+  /**
+   * Returns the template for a FlowFile's request, which is only parsed if the engine arguments
+   * evaluate to something which hasn't been seen recently. If they can't be parsed, the FlowFile is
+   * transferred to the failure relationship and a ProcessException is thrown.
+   */
+  private RequestTemplate requestTemplate(
+      final ProcessContext context, final ProcessSession session, FlowFile flowFile) {
+    if (template != null) {
+      return template;
+    }
+
+    String engineArgs =
+        context.getProperty(PROPERTY_ENGINE_ARGS).evaluateAttributeExpressions(flowFile).getValue();
+    RequestTemplate compiled = templates.get(engineArgs);
+    if (compiled == null) {
+      try {
+        compiled = RequestTemplate.compile(preprocessors, engineArgs);
+      } catch (IOException e) {
+        session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
+        throw new ProcessException("Can't parse engine arguments", e);
+      }
+      templates.put(engineArgs, compiled);
+    }
+
+    return compiled;
+  }
+
+  /**
+   * Creates the HttpEntity for a request, adding the content from the InputStream in the manner
+   * given by the Request Mode property. The InputStream must remain open until the request has
+   * been sent, and is ignored for requests which reference the image by URL.
+   */
+  private static HttpEntity createEntity(
+      final ProcessContext context,
+      OpenOCRRequest request,
+      RequestTemplate requestTemplate,
+      InputStream content)
+      throws IOException {
+    if (request instanceof OpenOCRRequestUrl) {
+      return new StringEntity(
+          OBJECT_MAPPER.writeValueAsString(request), ContentType.APPLICATION_JSON);
+    }
+
+    if (request instanceof OpenOCRRequestMultipart) {
+      OpenOCRRequestMultipart multipart = (OpenOCRRequestMultipart) request;
+      multipart.setContent(content);
+      return new OpenOCRRequestMultipartEntity(multipart, requestTemplate.getEnvelope());
+    }
+
+    OpenOCRRequestBase64 base64 = (OpenOCRRequestBase64) request;
+    if (BUFFERED.getValue().equals(context.getProperty(PROPERTY_REQUEST_MODE).getValue())) {
+      base64.setContent(Base64.encodeBase64String(IOUtils.toByteArray(content)));
+      return new StringEntity(
+          OBJECT_MAPPER.writeValueAsString(base64), ContentType.APPLICATION_JSON);
+    }
+
+    return new OpenOCRRequestBase64Entity(requestTemplate.getEnvelope(), content);
+  }
+
+  /** Returns the URI to send a request to, which depends on how the image is sent */
+  private static URI requestUri(Endpoint endpoint, OpenOCRRequest request) {
+    if (request instanceof OpenOCRRequestMultipart) {
+      return endpoint.getUri().resolve(FILE_UPLOAD_PATH);
+    }
+
+    return endpoint.getUri();
+  }
+
+  /**
+   * Calculates the key for a request in the cache, which is a SHA-256 hash of the image content,
+   * the scaling applied to it and the request arguments
+   */
+  private static String cacheKey(
+      final ProcessContext context,
+      final ProcessSession session,
+      FlowFile flowFile,
+      OpenOCRRequest request) {
+    MessageDigest digest = DigestUtils.getSha256Digest();
+    try {
+      // Requests which reference the image by URL are keyed on the URL rather than the content
+      if (!(request instanceof OpenOCRRequestUrl)) {
+        try (InputStream is = session.read(flowFile)) {
+          DigestUtils.updateDigest(digest, is);
+        }
+
+        // Scaling changes the image the server sees, so results for different sizes can't be
+        // shared. Keys for unscaled images are unchanged, so existing entries remain valid.
+        if (context.getProperty(PROPERTY_SCALE_IMAGES).asBoolean()) {
+          DigestUtils.updateDigest(
+              digest,
+              "scale:" + context.getProperty(PROPERTY_MAX_IMAGE_DIMENSION).asInteger());
+        }
+      }
+      digest.update(CACHE_KEY_WRITER.writeValueAsBytes(request));
+    } catch (IOException e) {
+      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
+      throw new ProcessException("Unable to read data", e);
+    }
+
+    return Hex.encodeHexString(digest.digest());
+  }
+
+  /**
+   * Transfers the cached text for a FlowFile, if there is any
+   *
+   * @return true if the FlowFile was transferred
+   */
+  private boolean transferCached(final ProcessSession session, FlowFile flowFile, String key) {
+    String cached;
+    try {
+      cached = cache.get(key);
+    } catch (IOException e) {
+      getLogger().warn("Could not read from cache", e);
+      cached = null;
+    }
+
+    if (cached == null) {
+      session.adjustCounter(COUNTER_CACHE_MISSES, 1, false);
+      return false;
+    }
+
+    session.adjustCounter(COUNTER_CACHE_HITS, 1, false);
+    transferExtracted(session, flowFile, cached, StandardCharsets.UTF_8, true, Map.of());
+    return true;
+  }
+
+  /** Adds extracted text to the cache, if it is enabled */
+  private void addToCache(String key, String extracted) {
+    if (cache == null || key == null) {
+      return;
+    }
+
+    try {
+      cache.put(key, extracted);
+    } catch (IOException e) {
+      getLogger().warn("Could not write to cache", e);
+    }
+  }
+
+  /**
+   * Writes extracted text to a new FlowFile with the given attributes, and transfers it and the
+   * original FlowFile
+   */
+  private void transferExtracted(
+      final ProcessSession session,
+      FlowFile flowFile,
+      String extracted,
+      Charset charset,
+      boolean cacheHit,
+      Map<String, String> attributes) {
+    FlowFile f = session.create(flowFile);
+
+    f = session.write(f, outputStream -> IOUtils.write(extracted, outputStream, charset));
+    if (!attributes.isEmpty()) {
+      f = session.putAllAttributes(f, attributes);
+    }
+    if (cache != null) {
+      f = session.putAttribute(f, ATTRIBUTE_CACHE_HIT, String.valueOf(cacheHit));
+    }
+
+    session.transfer(f, RELATIONSHIP_EXTRACTED);
+    session.transfer(flowFile, RELATIONSHIP_ORIGINAL_SUCCESS);
+  }
+
+  /** Records how long a FlowFile was queued for before it was processed */
+  private void recordQueueWait(FlowFile flowFile) {
+    Long queued = flowFile.getLastQueueDate();
+    if (queued != null) {
+      metrics.recordQueueWait(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - queued));
+    }
+  }
+
+  /** Records a request which the OpenOCR Server responded to */
+  private void recordRequest(
+      final ProcessSession session, long sent, long received, long durationNanos) {
+    metrics.recordRequest(sent, received, durationNanos);
+
+    session.adjustCounter(COUNTER_REQUESTS, 1, false);
+    session.adjustCounter(
+        COUNTER_REQUEST_TIME, TimeUnit.NANOSECONDS.toMillis(durationNanos), false);
+    session.adjustCounter(COUNTER_BYTES_SENT, sent, false);
+    session.adjustCounter(COUNTER_BYTES_RECEIVED, received, false);
+  }
+
+  /** Records an error, in one of the categories defined by {@link RequestMetrics} */
+  private void recordError(final ProcessSession session, String category) {
+    metrics.recordError(category);
+
+    // Errors are counted immediately, as the session may be rolled back
+    session.adjustCounter(COUNTER_ERRORS_PREFIX + category, 1, true);
+  }
+
+  /**
+   * Acquires a permit to send a request to the OpenOCR Server. If the circuit breaker is open, the
+   * processor yields.
+   *
+   * @return true if a permit was acquired, in which case {@link #releasePermit(ProcessSession,
+   *     Outcome)} must be called once the request is complete
+   */
+  private boolean acquirePermit(final ProcessContext context) {
+    if (!circuitBreaker.allowRequest()) {
+      context.yield();
+      return false;
+    }
+
+    if (!limiter.tryAcquire()) {
+      circuitBreaker.onIgnored();
+      return false;
+    }
+
+    return true;
+  }
+
+  /** Releases a permit, feeding the outcome of the request back to the limiter and breaker */
+  private void releasePermit(final ProcessSession session, Outcome outcome) {
+    switch (outcome) {
+      case SUCCESS:
+        limiter.onSuccess();
+        circuitBreaker.onSuccess();
+        break;
+      case OVERLOADED:
+        limiter.onDropped();
+        if (circuitBreaker.onFailure()) {
+          getLogger().warn("Too many requests to the OpenOCR Server have failed, pausing requests");
+          session.adjustCounter(COUNTER_CIRCUIT_BREAKER_OPENED, 1, true);
+        }
+        break;
+      default:
+        limiter.onIgnored();
+        circuitBreaker.onIgnored();
+    }
+  }
+
+  /**
+   * Routes a FlowFile to retry, or to failure if it has already been retried the maximum number of
+   * times. FlowFiles routed to retry are penalized, so NiFi holds them back for the Penalty
+   * Duration without the processor having to look at them.
+   */
+  private void retry(
+      final ProcessContext context, final ProcessSession session, FlowFile flowFile) {
+    int retries = retryCount(flowFile);
+    if (retries >= context.getProperty(PROPERTY_MAX_RETRIES).asInteger()) {
+      getLogger().error("Giving up on {} after {} retries", new Object[] {flowFile, retries});
+      session.transfer(flowFile, RELATIONSHIP_ORIGINAL_FAILURE);
+      return;
+    }
+
+    flowFile = session.putAttribute(flowFile, ATTRIBUTE_RETRY_COUNT, String.valueOf(retries + 1));
+
+    session.adjustCounter(COUNTER_RETRIES, 1, false);
+    session.transfer(session.penalize(flowFile), RELATIONSHIP_RETRY);
+  }
+
+  /** Returns the number of times a FlowFile has been retried, or 0 if it hasn't been */
+  private static int retryCount(FlowFile flowFile) {
+    String value = flowFile.getAttribute(ATTRIBUTE_RETRY_COUNT);
+    if (value == null) {
+      return 0;
+    }
+
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Returns whether a status code indicates the OpenOCR Server was unavailable or overloaded, such
+   * that the request may succeed if it is sent again later
+   */
+  private static boolean isRetryable(int statusCode) {
+    return statusCode == 408 || statusCode == 429 || (statusCode >= 500 && statusCode != 501);
+  }
+
+  /** Releases an endpoint once a request to it is complete, logging if it was ejected */
+  private void releaseEndpoint(Endpoint endpoint, boolean healthy) {
+    if (endpoints.release(endpoint, healthy)) {
+      getLogger()
+          .warn("Ejecting OpenOCR Server {} after repeated failures", new Object[] {endpoint});
+    }
+  }
+
+  /** Adds the time taken by a request, and the endpoint it was sent to, to the original FlowFile */
+  private static FlowFile putRequestAttributes(
+      final ProcessSession session, FlowFile flowFile, Endpoint endpoint, long durationNanos) {
+    Map<String, String> attributes = new HashMap<>();
+    attributes.put(
+        ATTRIBUTE_DURATION, String.valueOf(TimeUnit.NANOSECONDS.toMillis(durationNanos)));
+    attributes.put(ATTRIBUTE_ENDPOINT, endpoint.getUri().getAuthority());
+
+    return session.putAllAttributes(flowFile, attributes);
+  }
+
+  /**
+   * Parses a comma-separated list of endpoints, as host or host:port, into URIs
+   *
+   * @throws IllegalArgumentException if any of the endpoints are invalid
+   */
+  static List<URI> parseEndpoints(String scheme, String endpoints, int defaultPort) {
+    List<URI> uris = new ArrayList<>();
+    for (String endpoint : endpoints.trim().split("\\s*,\\s*")) {
+      if (endpoint.isEmpty()) {
+        throw new IllegalArgumentException("Endpoints must not be empty");
+      }
+
+      int separator = endpoint.lastIndexOf(':');
+      if (separator < 0) {
+        uris.add(endpointUri(scheme, endpoint, defaultPort));
+        continue;
+      }
+
+      int port;
+      try {
+        port = Integer.parseInt(endpoint.substring(separator + 1));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid port for endpoint " + endpoint, e);
+      }
+      uris.add(endpointUri(scheme, endpoint.substring(0, separator), port));
+    }
+
+    return uris;
+  }
+
+  /**
+   * Creates the URI for OCR requests to an OpenOCR Server
+   *
+   * @throws IllegalArgumentException if the host or port are invalid
+   */
+  private static URI endpointUri(String scheme, String host, int port) {
+    if (port < 1 || port > 65535) {
+      throw new IllegalArgumentException("Invalid port " + port + " for endpoint " + host);
+    }
+
+    try {
+      return new URI(scheme, null, host, port, "/ocr", null, null);
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException("Invalid endpoint " + host, e);
+    }
+  }
+
+  /** Returns the number of bytes sent for a request entity, once it has been sent */
+  private static long bytesSent(HttpEntity entity) {
+    if (entity instanceof OpenOCRRequestBase64Entity) {
+      return ((OpenOCRRequestBase64Entity) entity).getBytesWritten();
+    } else if (entity instanceof OpenOCRRequestMultipartEntity) {
+      return ((OpenOCRRequestMultipartEntity) entity).getBytesWritten();
+    }
+
+    return Math.max(0, entity.getContentLength());
+  }
+
+  /** How the OpenOCR Server handled a request, as far as the limiter and breaker are concerned */
+  private enum Outcome {
+    /** The server responded successfully */
+    SUCCESS,
+    /** The server was unavailable or overloaded */
+    OVERLOADED,
+    /** The outcome says nothing about the server's capacity */
+    IGNORED
+  }
+
+  private static boolean isSplittingPages(final ProcessContext context) {
+    return !isAsynchronous(context) && context.getProperty(PROPERTY_SPLIT_PAGES).asBoolean();
+  }
+
+  private static boolean isAsynchronous(final ProcessContext context) {
+    return ASYNCHRONOUS.getValue().equals(context.getProperty(PROPERTY_EXECUTION_MODE).getValue());
+  }
+
+  private static int timeoutMillis(final ProcessContext context, PropertyDescriptor property) {
+    return context.getProperty(property).asTimePeriod(TimeUnit.MILLISECONDS).intValue();
+  }
+
+  /**
+   * Silently closes a Closeable, by ignoring any exceptions thrown. Also performs a null pointer
+   * check.
+   */
+  private void silentlyClose(Closeable c) {
+    if (c == null) return;
+
+    try {
+      c.close();
+    } catch (Exception e) {
+      // Do nothing
+    }
+  }
+
+  /** The outcome of sending a single page to the OpenOCR server */
+  private static class PageResponse {
+    private int statusCode;
+    private String reasonPhrase;
+    private String extracted;
+    private long sent;
+    private long received;
+    private long duration;
+  }
+
+  /**
+   * A request which has been sent asynchronously to the OpenOCR server. When the server responds,
+   * or the request fails, the outcome is recorded and the request is queued to be completed by a
+   * later task.
+   */
+  private class AsyncRequest implements FutureCallback<HttpResponse> {
+    private final ProcessContext context;
+    private final ProcessSession session;
+    private final FlowFile flowFile;
+    private final Endpoint endpoint;
+    private final String cacheKey;
+    private final long sent;
+    private final long start = System.nanoTime();
+
+    private volatile long duration;
+    private volatile long received;
+    private volatile int statusCode;
+    private volatile String reasonPhrase;
+    private volatile String extracted;
+    private volatile Charset charset;
+    private volatile Exception exception;
+
+    private AsyncRequest(
+        ProcessContext context,
+        ProcessSession session,
+        FlowFile flowFile,
+        Endpoint endpoint,
+        String cacheKey,
+        long sent) {
+      this.context = context;
+      this.session = session;
+      this.flowFile = flowFile;
+      this.endpoint = endpoint;
+      this.cacheKey = cacheKey;
+      this.sent = sent;
+    }
+
+    @Override
+    public void completed(HttpResponse response) {
+      duration = System.nanoTime() - start;
+      statusCode = response.getStatusLine().getStatusCode();
+      reasonPhrase = response.getStatusLine().getReasonPhrase();
+      releaseEndpoint(endpoint, !isRetryable(statusCode));
+
+      if (statusCode == 200) {
+        try {
+          HttpEntity entity = response.getEntity();
+
+          charset = ContentType.getOrDefault(entity).getCharset();
+          CountingInputStream content = new CountingInputStream(entity.getContent());
+          extracted = IOUtils.toString(content, charset);
+          received = content.getByteCount();
+        } catch (IOException e) {
+          exception = e;
+        }
+      }
+
+      responded.add(this);
+    }
+
+    @Override
+    public void failed(Exception e) {
+      releaseEndpoint(endpoint, false);
+      exception = e;
+      responded.add(this);
+    }
+
+    @Override
+    public void cancelled() {
+      // Cancelled requests are rolled back when the processor is stopped
     }
   }
 }
@@ -0,0 +1,158 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+/**
+ * Splits a multi-page document into one PNG image per page, so that each page can be sent to the
+ * OpenOCR Server separately. Pages are rendered on demand, so only the pages currently being
+ * processed need to be held in memory.
+ *
+ * <p>Splitters aren't thread-safe, so pages should be rendered by a single thread.
+ */
+public abstract class PageSplitter implements Closeable {
+
+  /** The formats of document which can be split */
+  public enum Format {
+    PDF,
+    TIFF
+  }
+
+  /** Number of bytes needed by {@link #detect(byte[])} */
+  public static final int HEADER_LENGTH = 4;
+
+  /** Returns the format of a document from its first bytes, or null if it can't be split */
+  public static Format detect(byte[] header) {
+    if (header.length < HEADER_LENGTH) {
+      return null;
+    }
+
+    if (header[0] == '%' && header[1] == 'P' && header[2] == 'D' && header[3] == 'F') {
+      return Format.PDF;
+    } else if ((header[0] == 'I' && header[1] == 'I' && header[2] == 42 && header[3] == 0)
+        || (header[0] == 'M' && header[1] == 'M' && header[2] == 0 && header[3] == 42)) {
+      return Format.TIFF;
+    }
+
+    return null;
+  }
+
+  /**
+   * Opens a document for splitting. The InputStream must remain open until the splitter is closed.
+   *
+   * @param format The format of the document
+   * @param content The document content
+   * @param dpi The resolution at which to render pages of PDFs
+   */
+  public static PageSplitter open(Format format, InputStream content, int dpi) throws IOException {
+    if (format == Format.PDF) {
+      return new PdfSplitter(content, dpi);
+    }
+
+    return new TiffSplitter(content);
+  }
+
+  /** Returns the number of pages in the document */
+  public abstract int getPageCount() throws IOException;
+
+  /** Renders a page of the document, counting from 0, as a PNG image */
+  public abstract byte[] renderPage(int index) throws IOException;
+
+  private static byte[] toPng(BufferedImage image) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", baos);
+    return baos.toByteArray();
+  }
+
+  /** Renders pages of PDFs, buffering the document in temporary files rather than memory */
+  private static class PdfSplitter extends PageSplitter {
+    private final PDDocument document;
+    private final PDFRenderer renderer;
+    private final int dpi;
+
+    private PdfSplitter(InputStream content, int dpi) throws IOException {
+      this.document = PDDocument.load(content, MemoryUsageSetting.setupTempFileOnly());
+      this.renderer = new PDFRenderer(document);
+      this.dpi = dpi;
+    }
+
+    @Override
+    public int getPageCount() {
+      return document.getNumberOfPages();
+    }
+
+    @Override
+    public byte[] renderPage(int index) throws IOException {
+      return toPng(renderer.renderImageWithDPI(index, dpi, ImageType.GRAY));
+    }
+
+    @Override
+    public void close() throws IOException {
+      document.close();
+    }
+  }
+
+  /** Reads the images in (multi-page) TIFFs */
+  private static class TiffSplitter extends PageSplitter {
+    private final ImageInputStream input;
+    private final ImageReader reader;
+
+    private TiffSplitter(InputStream content) throws IOException {
+      Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("tiff");
+      if (!readers.hasNext()) {
+        throw new IOException("No TIFF reader is available");
+      }
+
+      this.input = ImageIO.createImageInputStream(content);
+      this.reader = readers.next();
+      reader.setInput(input, false, true);
+    }
+
+    @Override
+    public int getPageCount() throws IOException {
+      return reader.getNumImages(true);
+    }
+
+    @Override
+    public byte[] renderPage(int index) throws IOException {
+      return toPng(reader.read(index));
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.dispose();
+      input.close();
+    }
+  }
+}
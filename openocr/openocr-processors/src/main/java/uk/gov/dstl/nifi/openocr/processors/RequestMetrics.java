@@ -0,0 +1,155 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics for requests to the OpenOCR server, shared by all concurrent tasks of a processor. These
+ * can be published through JMX, so that they can be collected by external monitoring.
+ */
+public class RequestMetrics implements RequestMetricsMBean {
+  public static final String ERROR_TIMEOUT = "Timeout";
+  public static final String ERROR_CONNECTION = "Connection";
+  public static final String ERROR_CLIENT = "Client Error";
+  public static final String ERROR_SERVER = "Server Error";
+  public static final String ERROR_INVALID_REQUEST = "Invalid Request";
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder bytesSent = new LongAdder();
+  private final LongAdder bytesReceived = new LongAdder();
+  private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LatencyHistogram queueWait = new LatencyHistogram();
+
+  /** Records a request which the server responded to, regardless of the status code */
+  public void recordRequest(long sent, long received, long latencyNanos) {
+    requests.increment();
+    bytesSent.add(sent);
+    bytesReceived.add(received);
+    latency.record(latencyNanos);
+  }
+
+  /** Records how long a FlowFile waited in the incoming queue before being processed */
+  public void recordQueueWait(long nanos) {
+    queueWait.record(nanos);
+  }
+
+  /** Records an error, in one of the categories defined by this class */
+  public void recordError(String category) {
+    errors.computeIfAbsent(category, k -> new LongAdder()).increment();
+  }
+
+  /** Returns the error category for an HTTP status code */
+  public static String errorCategory(int statusCode) {
+    return statusCode >= 500 ? ERROR_SERVER : ERROR_CLIENT;
+  }
+
+  /**
+   * Returns the error category for an exception thrown while communicating with the server.
+   * Connection, connection pool and socket timeouts are all InterruptedIOExceptions.
+   */
+  public static String errorCategory(Exception e) {
+    return e instanceof InterruptedIOException ? ERROR_TIMEOUT : ERROR_CONNECTION;
+  }
+
+  @Override
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  @Override
+  public long getBytesSent() {
+    return bytesSent.sum();
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return bytesReceived.sum();
+  }
+
+  @Override
+  public long getTimeoutErrors() {
+    return errors(ERROR_TIMEOUT);
+  }
+
+  @Override
+  public long getConnectionErrors() {
+    return errors(ERROR_CONNECTION);
+  }
+
+  @Override
+  public long getClientErrors() {
+    return errors(ERROR_CLIENT);
+  }
+
+  @Override
+  public long getServerErrors() {
+    return errors(ERROR_SERVER);
+  }
+
+  @Override
+  public long getInvalidRequestErrors() {
+    return errors(ERROR_INVALID_REQUEST);
+  }
+
+  @Override
+  public double getLatencyP50Millis() {
+    return millis(latency.percentile(50));
+  }
+
+  @Override
+  public double getLatencyP99Millis() {
+    return millis(latency.percentile(99));
+  }
+
+  @Override
+  public double getQueueWaitP50Millis() {
+    return millis(queueWait.percentile(50));
+  }
+
+  @Override
+  public double getQueueWaitP99Millis() {
+    return millis(queueWait.percentile(99));
+  }
+
+  @Override
+  public void reset() {
+    requests.reset();
+    bytesSent.reset();
+    bytesReceived.reset();
+    errors.clear();
+    latency.reset();
+    queueWait.reset();
+  }
+
+  private long errors(String category) {
+    LongAdder adder = errors.get(category);
+    return adder == null ? 0 : adder.sum();
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+}
@@ -0,0 +1,108 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import uk.gov.dstl.openocr.OpenOCRRequest;
+import uk.gov.dstl.openocr.OpenOCRRequestBase64;
+import uk.gov.dstl.openocr.OpenOCRRequestBase64Entity;
+
+/**
+ * The parts of an OpenOCR request which come from the processor's configuration rather than the
+ * image, parsed and serialized once so that they can be shared by every request with the same
+ * configuration. Templates are immutable, so can be shared between threads.
+ */
+public final class RequestTemplate {
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final List<String> preprocessors;
+  private final Map<String, Object> engineArgs;
+  private final byte[] envelope;
+
+  private RequestTemplate(List<String> preprocessors, Map<String, Object> engineArgs)
+      throws IOException {
+    this.preprocessors = preprocessors;
+    this.engineArgs = engineArgs;
+
+    OpenOCRRequestBase64 request = new OpenOCRRequestBase64();
+    apply(request);
+    this.envelope = OpenOCRRequestBase64Entity.envelope(request);
+  }
+
+  /**
+   * Creates a template
+   *
+   * @param preprocessors The pre-processors to run, in order
+   * @param engineArgs A JSON object containing arguments for the OCR engine, or null if there are
+   *     none
+   * @throws IOException if the engine arguments aren't a JSON object
+   */
+  public static RequestTemplate compile(List<String> preprocessors, String engineArgs)
+      throws IOException {
+    return new RequestTemplate(
+        Collections.unmodifiableList(preprocessors),
+        Collections.unmodifiableMap(parseEngineArgs(engineArgs)));
+  }
+
+  /** Parses engine arguments, returning an empty map if there are none */
+  public static Map<String, Object> parseEngineArgs(String engineArgs) throws IOException {
+    if (engineArgs == null || engineArgs.isEmpty()) {
+      return new HashMap<>();
+    }
+
+    Map<String, Object> parsed =
+        OBJECT_MAPPER.readValue(engineArgs, new TypeReference<HashMap<String, Object>>() {});
+    if (parsed == null) {
+      throw new IOException("Engine arguments must be a JSON object");
+    }
+
+    return parsed;
+  }
+
+  /** Sets the pre-processors and engine arguments of a request */
+  public void apply(OpenOCRRequest request) {
+    request.setPreprocessors(preprocessors);
+    request.setEngineArgs(engineArgs);
+  }
+
+  public List<String> getPreprocessors() {
+    return preprocessors;
+  }
+
+  public Map<String, Object> getEngineArgs() {
+    return engineArgs;
+  }
+
+  /**
+   * Returns the request serialized as JSON without any image, as expected by {@link
+   * OpenOCRRequestBase64Entity#OpenOCRRequestBase64Entity(byte[], java.io.InputStream)}. The
+   * returned array mustn't be modified.
+   */
+  public byte[] getEnvelope() {
+    return envelope;
+  }
+}
@@ -27,9 +27,11 @@ import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
 
 public class OpenOCRRequestBase64 extends OpenOCRRequest {
+  public static final String CONTENT_PROPERTY = "img_base64";
+
   private String content;
 
-  @JsonProperty("img_base64")
+  @JsonProperty(CONTENT_PROPERTY)
   public String getContent() {
     return content;
   }
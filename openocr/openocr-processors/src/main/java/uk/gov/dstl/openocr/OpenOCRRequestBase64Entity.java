@@ -0,0 +1,152 @@
+package uk.gov.dstl.openocr;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * HttpEntity which writes an OpenOCR request as JSON, Base64 encoding the image content directly
+ * from an InputStream as it is sent. Unlike {@link OpenOCRRequestBase64}, the image is never held
+ * in memory, so the memory used is the same regardless of the size of the image.
+ *
+ * <p>The entity can only be written once, as the InputStream is consumed in doing so.
+ */
+public class OpenOCRRequestBase64Entity extends AbstractHttpEntity {
+  private static final ObjectMapper OBJECT_MAPPER =
+      new ObjectMapper().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+  private static final byte[] CONTENT_FIELD =
+      ("\"" + OpenOCRRequestBase64.CONTENT_PROPERTY + "\":\"").getBytes(StandardCharsets.UTF_8);
+  private static final byte[] CONTENT_END = "\"}".getBytes(StandardCharsets.UTF_8);
+
+  private final OpenOCRRequest request;
+  private final byte[] envelope;
+  private final InputStream content;
+
+  private volatile long bytesWritten = 0;
+
+  /**
+   * Create a new entity
+   *
+   * @param request The request, which provides everything except the image content
+   * @param content The unencoded image content
+   */
+  public OpenOCRRequestBase64Entity(OpenOCRRequest request, InputStream content) {
+    this(request, null, content);
+  }
+
+  /**
+   * Create a new entity from a request which has already been serialized, so that requests which
+   * only differ in their content don't each need serializing
+   *
+   * @param envelope The request without the image content, as returned by {@link
+   *     #envelope(OpenOCRRequest)}
+   * @param content The unencoded image content
+   */
+  public OpenOCRRequestBase64Entity(byte[] envelope, InputStream content) {
+    this(null, envelope, content);
+  }
+
+  private OpenOCRRequestBase64Entity(OpenOCRRequest request, byte[] envelope, InputStream content) {
+    this.request = request;
+    this.envelope = envelope;
+    this.content = content;
+
+    setContentType(ContentType.APPLICATION_JSON.toString());
+    setChunked(true);
+  }
+
+  /** Serializes everything in a request except the image content, as a JSON object */
+  public static byte[] envelope(OpenOCRRequest request) throws IOException {
+    ObjectNode envelope = OBJECT_MAPPER.valueToTree(request);
+    envelope.remove(OpenOCRRequestBase64.CONTENT_PROPERTY);
+
+    return OBJECT_MAPPER.writeValueAsBytes(envelope);
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return false;
+  }
+
+  @Override
+  public long getContentLength() {
+    return -1;
+  }
+
+  /**
+   * Writes the entity to a buffer and returns it as an InputStream, as HttpCore's EntityTemplate
+   * does. This holds the whole request in memory, so is only for callers which can't use {@link
+   * #writeTo(OutputStream)}, and like that consumes the image content.
+   */
+  @Override
+  public InputStream getContent() throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    writeTo(buffer);
+    return new ByteArrayInputStream(buffer.toByteArray());
+  }
+
+  @Override
+  public void writeTo(OutputStream outputStream) throws IOException {
+    byte[] json = envelope != null ? envelope : envelope(request);
+
+    // Write the envelope without its closing brace, and then the content as the last field.
+    // Base64 characters never need escaping, so the content can be encoded straight into the JSON.
+    CountingOutputStream counting = new CountingOutputStream(outputStream);
+    counting.write(json, 0, json.length - 1);
+    if (json.length > 2) {
+      counting.write(',');
+    }
+    counting.write(CONTENT_FIELD);
+    try (OutputStream base64 =
+        new Base64OutputStream(CloseShieldOutputStream.wrap(counting), true, 0, null)) {
+      IOUtils.copy(content, base64);
+    }
+    counting.write(CONTENT_END);
+    counting.flush();
+
+    bytesWritten = counting.getByteCount();
+  }
+
+  /** Returns the number of bytes written by {@link #writeTo(OutputStream)}, once it has returned */
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return true;
+  }
+}
@@ -0,0 +1,60 @@
+package uk.gov.dstl.openocr;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.io.InputStream;
+
+/**
+ * Request which is sent to OpenOCR's file upload endpoint as a multipart request, with the image
+ * content unencoded in its own part rather than Base64 encoded within the JSON. The content is
+ * read from an InputStream as the request is sent, so is never held in memory.
+ */
+public class OpenOCRRequestMultipart extends OpenOCRRequest {
+  /** Content type of the image part when the type of the image isn't known */
+  public static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+  private InputStream content;
+  private String contentType = DEFAULT_CONTENT_TYPE;
+
+  @JsonIgnore
+  public InputStream getContent() {
+    return content;
+  }
+
+  public void setContent(InputStream content) {
+    this.content = content;
+  }
+
+  @JsonIgnore
+  public String getContentType() {
+    return contentType;
+  }
+
+  public void setContentType(String contentType) {
+    this.contentType = contentType;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return content == null;
+  }
+}
@@ -0,0 +1,139 @@
+package uk.gov.dstl.openocr;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * HttpEntity which writes an {@link OpenOCRRequestMultipart} in the form expected by OpenOCR's
+ * file upload endpoint: a multipart/related body whose first part is the request as JSON, and
+ * whose second part is the unencoded image. The image is copied directly from the request's
+ * InputStream as it is sent, so it is never Base64 encoded or held in memory.
+ *
+ * <p>The entity can only be written once, as the InputStream is consumed in doing so.
+ */
+public class OpenOCRRequestMultipartEntity extends AbstractHttpEntity {
+  private static final ObjectMapper OBJECT_MAPPER =
+      new ObjectMapper().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+  private static final String CRLF = "\r\n";
+
+  private final OpenOCRRequestMultipart request;
+  private final byte[] envelope;
+  private final String boundary = "openocr-" + UUID.randomUUID();
+
+  private volatile long bytesWritten = 0;
+
+  /**
+   * Create a new entity
+   *
+   * @param request The request, including the InputStream to read the image content from
+   */
+  public OpenOCRRequestMultipartEntity(OpenOCRRequestMultipart request) {
+    this(request, null);
+  }
+
+  /**
+   * Create a new entity, using a request which has already been serialized for the JSON part
+   *
+   * @param request The request, including the InputStream to read the image content from
+   * @param envelope The request serialized as JSON, as returned by {@link
+   *     OpenOCRRequestBase64Entity#envelope(OpenOCRRequest)}, or null to serialize it when written
+   */
+  public OpenOCRRequestMultipartEntity(OpenOCRRequestMultipart request, byte[] envelope) {
+    this.request = request;
+    this.envelope = envelope;
+
+    setContentType("multipart/related; boundary=" + boundary);
+    setChunked(true);
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return false;
+  }
+
+  @Override
+  public long getContentLength() {
+    return -1;
+  }
+
+  /**
+   * Writes the entity to a buffer and returns it as an InputStream, as HttpCore's EntityTemplate
+   * does. This holds the whole request in memory, so is only for callers which can't use {@link
+   * #writeTo(OutputStream)}, and like that consumes the image content.
+   */
+  @Override
+  public InputStream getContent() throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    writeTo(buffer);
+    return new ByteArrayInputStream(buffer.toByteArray());
+  }
+
+  @Override
+  public void writeTo(OutputStream outputStream) throws IOException {
+    CountingOutputStream counting = new CountingOutputStream(outputStream);
+
+    // OpenOCR requires the Content-Type of the JSON part to be exactly application/json
+    writeHeaders(counting, "application/json");
+    if (envelope != null) {
+      counting.write(envelope);
+    } else {
+      OBJECT_MAPPER.writeValue(counting, request);
+    }
+    write(counting, CRLF);
+
+    writeHeaders(counting, request.getContentType());
+    IOUtils.copy(request.getContent(), counting);
+    write(counting, CRLF + "--" + boundary + "--" + CRLF);
+
+    counting.flush();
+    bytesWritten = counting.getByteCount();
+  }
+
+  /** Returns the number of bytes written by {@link #writeTo(OutputStream)}, once it has returned */
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return true;
+  }
+
+  private void writeHeaders(OutputStream outputStream, String contentType) throws IOException {
+    write(outputStream, "--" + boundary + CRLF + "Content-Type: " + contentType + CRLF + CRLF);
+  }
+
+  private static void write(OutputStream outputStream, String s) throws IOException {
+    outputStream.write(s.getBytes(StandardCharsets.US_ASCII));
+  }
+}
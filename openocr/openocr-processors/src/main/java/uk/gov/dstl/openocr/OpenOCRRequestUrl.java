@@ -0,0 +1,47 @@
+package uk.gov.dstl.openocr;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Request which references an image by URL, so that the OpenOCR Server fetches the image itself
+ * rather than it being sent as part of the request.
+ */
+public class OpenOCRRequestUrl extends OpenOCRRequest {
+  public static final String URL_PROPERTY = "img_url";
+
+  private String url;
+
+  @JsonProperty(URL_PROPERTY)
+  public String getUrl() {
+    return url;
+  }
+
+  public void setUrl(String url) {
+    this.url = url;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return url == null || url.isEmpty();
+  }
+}
@@ -0,0 +1,91 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class AdaptiveLimiterTest {
+
+  @Test
+  public void testFixed() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(2, false);
+
+    assertTrue(limiter.tryAcquire());
+    assertTrue(limiter.tryAcquire());
+    assertFalse(limiter.tryAcquire());
+    assertEquals(2, limiter.getInFlight());
+
+    limiter.onDropped();
+    assertEquals(2, limiter.getLimit());
+    assertTrue(limiter.tryAcquire());
+  }
+
+  @Test
+  public void testAdaptive() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(8, true);
+
+    assertTrue(limiter.tryAcquire());
+    limiter.onDropped();
+    assertEquals(6, limiter.getLimit());
+
+    for (int i = 0; i < 10; i++) {
+      assertTrue(limiter.tryAcquire());
+      limiter.onDropped();
+    }
+    assertEquals(1, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+
+    // The limit only grows whilst it is being used
+    for (int i = 0; i < 100; i++) {
+      assertTrue(limiter.tryAcquire());
+      limiter.onSuccess();
+    }
+    assertTrue(limiter.getLimit() > 1);
+    assertTrue(limiter.getLimit() < 8);
+
+    for (int i = 0; i < 100; i++) {
+      while (limiter.tryAcquire()) {}
+      for (int j = limiter.getInFlight(); j > 0; j--) {
+        limiter.onSuccess();
+      }
+    }
+    assertEquals(8, limiter.getLimit());
+  }
+
+  @Test
+  public void testIgnored() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(1, true);
+
+    assertTrue(limiter.tryAcquire());
+    assertFalse(limiter.tryAcquire());
+    limiter.onIgnored();
+
+    assertEquals(1, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testZero() {
+    new AdaptiveLimiter(0, true);
+  }
+}
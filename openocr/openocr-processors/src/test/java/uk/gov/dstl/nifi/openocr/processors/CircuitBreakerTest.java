@@ -0,0 +1,96 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+  @Test
+  public void testOpens() {
+    CircuitBreaker breaker = new CircuitBreaker(0.5, 4, TimeUnit.HOURS.toNanos(1));
+
+    for (int i = 0; i < 2; i++) {
+      assertTrue(breaker.allowRequest());
+      breaker.onSuccess();
+    }
+    assertTrue(breaker.allowRequest());
+    assertFalse(breaker.onFailure());
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+    assertTrue(breaker.allowRequest());
+    assertTrue(breaker.onFailure());
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertFalse(breaker.allowRequest());
+  }
+
+  @Test
+  public void testWindowSlides() {
+    CircuitBreaker breaker = new CircuitBreaker(0.5, 3, TimeUnit.HOURS.toNanos(1));
+
+    breaker.onFailure();
+    breaker.onSuccess();
+    breaker.onSuccess();
+    breaker.onSuccess();
+
+    // The earlier failure has left the window
+    assertFalse(breaker.onFailure());
+    assertTrue(breaker.onFailure());
+  }
+
+  @Test
+  public void testHalfOpen() throws InterruptedException {
+    CircuitBreaker breaker = new CircuitBreaker(1.0, 1, TimeUnit.MILLISECONDS.toNanos(10));
+
+    assertTrue(breaker.onFailure());
+    Thread.sleep(20);
+
+    // Only a single trial request is allowed
+    assertTrue(breaker.allowRequest());
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    assertFalse(breaker.allowRequest());
+
+    // Ignored outcomes allow another trial
+    breaker.onIgnored();
+    assertTrue(breaker.allowRequest());
+    assertTrue(breaker.onFailure());
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+    Thread.sleep(20);
+    assertTrue(breaker.allowRequest());
+    breaker.onSuccess();
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  public void testDisabled() {
+    CircuitBreaker breaker = new CircuitBreaker(0, 1, TimeUnit.HOURS.toNanos(1));
+
+    for (int i = 0; i < 10; i++) {
+      assertTrue(breaker.allowRequest());
+      assertFalse(breaker.onFailure());
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import uk.gov.dstl.nifi.openocr.processors.EndpointSelector.Endpoint;
+
+public class EndpointSelectorTest {
+  private static final URI A = URI.create("http://a:9292/ocr");
+  private static final URI B = URI.create("http://b:9292/ocr");
+
+  @Test
+  public void testLeastOutstanding() {
+    EndpointSelector selector = new EndpointSelector(List.of(A, B), 3, TimeUnit.HOURS.toNanos(1));
+
+    // With two endpoints, both are always compared so requests alternate between them
+    Endpoint first = selector.select();
+    Endpoint second = selector.select();
+    assertNotEquals(first.getUri(), second.getUri());
+    assertEquals(1, selector.getOutstanding(first));
+    assertEquals(1, selector.getOutstanding(second));
+
+    selector.release(first, true);
+    assertSame(first, selector.select());
+  }
+
+  @Test
+  public void testEjection() {
+    EndpointSelector selector = new EndpointSelector(List.of(A, B), 2, TimeUnit.HOURS.toNanos(1));
+    Endpoint a = selector.getEndpoints().get(0);
+
+    assertFalse(selector.release(select(selector, a), false));
+    assertFalse(selector.release(select(selector, a), true));
+    assertFalse(selector.release(select(selector, a), false));
+    assertTrue(selector.release(select(selector, a), false));
+    assertTrue(selector.isEjected(a));
+
+    for (int i = 0; i < 10; i++) {
+      Endpoint e = selector.select();
+      assertEquals(B, e.getUri());
+      selector.release(e, true);
+    }
+  }
+
+  @Test
+  public void testProbe() throws InterruptedException {
+    EndpointSelector selector =
+        new EndpointSelector(List.of(A, B), 1, TimeUnit.MILLISECONDS.toNanos(10));
+    Endpoint a = selector.getEndpoints().get(0);
+    Endpoint b = selector.getEndpoints().get(1);
+
+    assertTrue(selector.release(select(selector, a), false));
+    Thread.sleep(20);
+    assertFalse(selector.isEjected(a));
+
+    // Only a single probe request is sent to an endpoint once its ejection has passed
+    Endpoint probe = select(selector, a);
+    for (int i = 0; i < 10; i++) {
+      assertSame(b, selector.select());
+    }
+
+    selector.release(probe, true);
+    assertEquals(0, selector.getOutstanding(a));
+    assertSame(a, selector.select());
+  }
+
+  @Test
+  public void testAllEjected() {
+    EndpointSelector selector = new EndpointSelector(List.of(A, B), 1, TimeUnit.HOURS.toNanos(1));
+    Endpoint a = selector.getEndpoints().get(0);
+    Endpoint b = selector.getEndpoints().get(1);
+
+    selector.release(select(selector, a), false);
+    selector.release(select(selector, b), false);
+
+    // Requests still go somewhere, to the endpoint which was ejected first
+    assertSame(a, selector.select());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoEndpoints() {
+    new EndpointSelector(List.of(), 1, 0);
+  }
+
+  /** Selects endpoints until the expected one is returned, releasing the others */
+  private static Endpoint select(EndpointSelector selector, Endpoint expected) {
+    while (true) {
+      Endpoint e = selector.select();
+      if (e == expected) {
+        return e;
+      }
+      selector.release(e, true);
+    }
+  }
+}
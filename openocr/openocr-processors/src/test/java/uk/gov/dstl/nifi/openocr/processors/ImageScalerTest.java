@@ -0,0 +1,72 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+
+public class ImageScalerTest {
+
+  @Test
+  public void testScale() throws IOException {
+    byte[] original = ImageScalerTest.class.getResourceAsStream("ocr_test.png").readAllBytes();
+
+    byte[] scaled = ImageScaler.scale(original, 400);
+
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(scaled));
+    assertEquals(400, image.getWidth());
+    assertEquals(160, image.getHeight());
+    assertEquals(BufferedImage.TYPE_BYTE_GRAY, image.getType());
+    assertTrue(scaled.length < original.length);
+  }
+
+  @Test
+  public void testNoUpscaling() {
+    BufferedImage source = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+
+    BufferedImage scaled = ImageScaler.scale(source, 1000);
+
+    assertEquals(300, scaled.getWidth());
+    assertEquals(200, scaled.getHeight());
+    assertEquals(BufferedImage.TYPE_BYTE_GRAY, scaled.getType());
+  }
+
+  @Test
+  public void testLargeReduction() {
+    BufferedImage source = new BufferedImage(6000, 4000, BufferedImage.TYPE_INT_RGB);
+
+    BufferedImage scaled = ImageScaler.scale(source, 1000);
+
+    assertEquals(1000, scaled.getWidth());
+    assertEquals(667, scaled.getHeight());
+  }
+
+  @Test
+  public void testNotAnImage() {
+    assertNull(ImageScaler.scale("Not an image".getBytes(StandardCharsets.UTF_8), 1000));
+  }
+}
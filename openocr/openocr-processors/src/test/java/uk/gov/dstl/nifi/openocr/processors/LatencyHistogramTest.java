@@ -0,0 +1,58 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBuckets() {
+    for (long value : new long[] {0, 1, 7, 8, 15, 16, 17, 1000, 123_456_789L, Long.MAX_VALUE}) {
+      int index = LatencyHistogram.index(value);
+
+      assertTrue(LatencyHistogram.upperBound(index) >= value);
+      if (index > 0) {
+        assertTrue(LatencyHistogram.upperBound(index - 1) < value);
+      }
+    }
+  }
+
+  @Test
+  public void testPercentile() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.percentile(50));
+
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+
+    assertEquals(1000, histogram.count());
+    assertEquals(500_000, histogram.percentile(50), 500_000 * 0.125);
+    assertEquals(990_000, histogram.percentile(99), 990_000 * 0.125);
+    assertTrue(histogram.percentile(100) >= 1_000_000);
+
+    histogram.reset();
+    assertEquals(0, histogram.count());
+  }
+}
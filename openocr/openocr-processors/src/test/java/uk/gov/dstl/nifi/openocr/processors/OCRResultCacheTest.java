@@ -0,0 +1,122 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OCRResultCacheTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String KEY_A = DigestUtils.sha256Hex("a");
+  private static final String KEY_B = DigestUtils.sha256Hex("b");
+  private static final String KEY_C = DigestUtils.sha256Hex("c");
+
+  @Test
+  public void testGetPut() throws IOException {
+    OCRResultCache cache = new OCRResultCache(folder.getRoot().toPath(), 10, 1024);
+
+    assertNull(cache.get(KEY_A));
+    cache.put(KEY_A, "Hello world");
+    assertEquals("Hello world", cache.get(KEY_A));
+    assertEquals(1, cache.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidKey() throws IOException {
+    OCRResultCache cache = new OCRResultCache(folder.getRoot().toPath(), 10, 1024);
+
+    cache.put("../hello", "Hello world");
+  }
+
+  @Test
+  public void testMaxEntries() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    OCRResultCache cache = new OCRResultCache(dir, 2, 1024);
+
+    cache.put(KEY_A, "A");
+    cache.put(KEY_B, "B");
+    cache.get(KEY_A);
+    cache.put(KEY_C, "C");
+
+    assertEquals("A", cache.get(KEY_A));
+    assertNull(cache.get(KEY_B));
+    assertEquals("C", cache.get(KEY_C));
+    assertFalse(Files.exists(dir.resolve(KEY_B)));
+  }
+
+  @Test
+  public void testMaxBytes() throws IOException {
+    OCRResultCache cache = new OCRResultCache(folder.getRoot().toPath(), 10, 15);
+
+    cache.put(KEY_A, "1234567890");
+    cache.put(KEY_B, "1234567890");
+
+    assertNull(cache.get(KEY_A));
+    assertEquals("1234567890", cache.get(KEY_B));
+  }
+
+  @Test
+  public void testMaxBytesLeastRecentlyUsed() throws IOException {
+    OCRResultCache cache = new OCRResultCache(folder.getRoot().toPath(), 10, 25);
+
+    cache.put(KEY_A, "1234567890");
+    cache.put(KEY_B, "1234567890");
+    assertEquals("1234567890", cache.get(KEY_A));
+    cache.put(KEY_C, "1234567890");
+
+    // A was read more recently than B, so B is evicted even though A was added first
+    assertEquals("1234567890", cache.get(KEY_A));
+    assertNull(cache.get(KEY_B));
+    assertEquals("1234567890", cache.get(KEY_C));
+  }
+
+  @Test
+  public void testReload() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    new OCRResultCache(dir, 10, 1024).put(KEY_A, "Hello world");
+
+    OCRResultCache cache = new OCRResultCache(dir, 10, 1024);
+    assertEquals(1, cache.size());
+    assertEquals("Hello world", cache.get(KEY_A));
+  }
+
+  @Test
+  public void testStaleTemporaryFiles() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    Path tmp = Files.createTempFile(dir, KEY_A, ".tmp");
+    Path other = Files.createFile(dir.resolve("notes.tmp"));
+
+    OCRResultCache cache = new OCRResultCache(dir, 10, 1024);
+
+    assertFalse(Files.exists(tmp));
+    assertTrue(Files.exists(other));
+    assertEquals(0, cache.size());
+  }
+}
@@ -20,6 +20,8 @@ package uk.gov.dstl.nifi.openocr.processors;
  * #L%
  */
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockserver.integration.ClientAndServer.startClientAndServer;
 import static org.mockserver.model.HttpRequest.request;
@@ -27,14 +29,27 @@ import static org.mockserver.model.HttpResponse.response;
 import static org.mockserver.model.StringBody.subString;
 import static org.mockserver.verify.VerificationTimes.exactly;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import javax.imageio.ImageIO;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockserver.integration.ClientAndServer;
 
 public class OpenOCRProcessorTest {
@@ -43,6 +58,8 @@ public class OpenOCRProcessorTest {
 
   private ClientAndServer mockServer;
 
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
   @Before
   public void init() {
     testRunner = TestRunners.newTestRunner(OpenOCRProcessor.class);
@@ -132,6 +149,116 @@ public class OpenOCRProcessorTest {
     testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_FAILURE.getName(), 0);
   }
 
+  @Test
+  public void testBufferedRequestMode() {
+    mockServer
+        .when(
+            request()
+                .withMethod("POST")
+                .withPath("/ocr")
+                .withBody(subString("\"preprocessors\":[\"stroke-width-transform\"]")))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withHeader("Content-Type", "plain/text; charset=utf-8")
+                .withBody("This is a test image\n\n" + "Testing, testing... 1... 2...\n" + "3..."));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(
+        OpenOCRProcessor.PROPERTY_REQUEST_MODE.getName(), OpenOCRProcessor.BUFFERED.getValue());
+    testRunner.setProperty(
+        OpenOCRProcessor.PROPERTY_PREPROCESSORS.getName(), "stroke-width-transform");
+    testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
+
+    testRunner.run();
+
+    mockServer.verify(request().withPath("/ocr"), exactly(1));
+
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS.getName(), 1);
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_EXTRACTED.getName(), 1);
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_FAILURE.getName(), 0);
+  }
+
+  @Test
+  public void testMultipartRequestMode() {
+    mockServer
+        .when(
+            request()
+                .withMethod("POST")
+                .withPath(OpenOCRProcessor.FILE_UPLOAD_PATH)
+                .withHeader("Content-Type", "multipart/related; boundary=.*")
+                .withBody(subString("Content-Type: image/png")))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withHeader("Content-Type", "plain/text; charset=utf-8")
+                .withBody("This is a test image"));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(
+        OpenOCRProcessor.PROPERTY_REQUEST_MODE.getName(), OpenOCRProcessor.MULTIPART.getValue());
+    testRunner.enqueue(
+        OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"),
+        Map.of("mime.type", "image/png"));
+
+    testRunner.run();
+
+    mockServer.verify(request().withPath(OpenOCRProcessor.FILE_UPLOAD_PATH), exactly(1));
+    mockServer.verify(request().withPath("/ocr"), exactly(0));
+
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS.getName(), 1);
+    testRunner
+        .getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_EXTRACTED)
+        .get(0)
+        .assertContentEquals("This is a test image");
+  }
+
+  @Test
+  public void testMetrics() throws JMException {
+    String body = "This is a test image";
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withHeader("Content-Type", "plain/text; charset=utf-8")
+                .withBody(body));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(
+        OpenOCRProcessor.PROPERTY_METRICS_SINK.getName(), OpenOCRProcessor.METRICS_JMX.getValue());
+    testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
+
+    testRunner.run(1, false, true);
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name =
+        new ObjectName(
+            "uk.gov.dstl.nifi.openocr:type=OpenOCRProcessor,id="
+                + testRunner.getProcessor().getIdentifier());
+    assertEquals(1L, server.getAttribute(name, "Requests"));
+    assertEquals((long) body.length(), server.getAttribute(name, "BytesReceived"));
+    assertEquals(0L, server.getAttribute(name, "ServerErrors"));
+
+    testRunner.run(1, true, false);
+    assertFalse(server.isRegistered(name));
+
+    assertEquals(Long.valueOf(1), testRunner.getCounterValue(OpenOCRProcessor.COUNTER_REQUESTS));
+    assertEquals(
+        Long.valueOf(body.length()),
+        testRunner.getCounterValue(OpenOCRProcessor.COUNTER_BYTES_RECEIVED));
+    assertTrue(testRunner.getCounterValue(OpenOCRProcessor.COUNTER_BYTES_SENT) > 0);
+
+    testRunner
+        .getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS)
+        .get(0)
+        .assertAttributeExists(OpenOCRProcessor.ATTRIBUTE_DURATION);
+    testRunner
+        .getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_EXTRACTED)
+        .get(0)
+        .assertAttributeExists(OpenOCRProcessor.ATTRIBUTE_DURATION);
+  }
+
   @Test
   public void testInternalServerError() {
     mockServer
@@ -141,23 +268,306 @@ public class OpenOCRProcessorTest {
     testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
     testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
 
-    try {
-      testRunner.run();
-    } catch (AssertionError e) {
-      // NiFi wraps ProcessException in an AssertionError
-      assertTrue(e.getCause().getClass().equals(ProcessException.class));
-    }
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(OpenOCRProcessor.RELATIONSHIP_RETRY.getName());
+    MockFlowFile retry =
+        testRunner.getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_RETRY).get(0);
+    retry.assertAttributeEquals(OpenOCRProcessor.ATTRIBUTE_RETRY_COUNT, "1");
+    assertTrue(retry.isPenalized());
+    assertEquals(
+        Long.valueOf(1),
+        testRunner.getCounterValue(
+            OpenOCRProcessor.COUNTER_ERRORS_PREFIX + RequestMetrics.ERROR_SERVER));
+  }
+
+  @Test
+  public void testRetriesExhausted() {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(response().withStatusCode(503));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_MAX_RETRIES.getName(), "2");
+    testRunner.enqueue(
+        OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"),
+        Map.of(OpenOCRProcessor.ATTRIBUTE_RETRY_COUNT, "2"));
+
+    testRunner.run();
 
     testRunner.assertAllFlowFilesTransferred(
         OpenOCRProcessor.RELATIONSHIP_ORIGINAL_FAILURE.getName());
   }
 
+  @Test
+  public void testClientErrorNotRetried() {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(response().withStatusCode(400));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(
+        OpenOCRProcessor.RELATIONSHIP_ORIGINAL_FAILURE.getName(), 1);
+    assertEquals(
+        Long.valueOf(1),
+        testRunner.getCounterValue(
+            OpenOCRProcessor.COUNTER_ERRORS_PREFIX + RequestMetrics.ERROR_CLIENT));
+  }
+
+  @Test
+  public void testCircuitBreaker() {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(response().withStatusCode(503));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_CIRCUIT_BREAKER_WINDOW.getName(), "2");
+    for (int i = 0; i < 3; i++) {
+      testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
+    }
+
+    testRunner.run(3);
+
+    // The third FlowFile isn't sent, as the circuit opened after the first two failed
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_RETRY.getName(), 2);
+    assertEquals(1, testRunner.getQueueSize().getObjectCount());
+    mockServer.verify(request().withPath("/ocr"), exactly(2));
+    assertEquals(
+        Long.valueOf(1),
+        testRunner.getCounterValue(OpenOCRProcessor.COUNTER_CIRCUIT_BREAKER_OPENED));
+  }
+
+  @Test
+  public void testYieldWhenEmpty() {
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+
+    testRunner.run();
+
+    assertTrue(testRunner.isYieldCalled());
+    mockServer.verify(request().withPath("/ocr"), exactly(0));
+  }
+
   @Test
   public void testNoServer() {
     testRunner.setProperty(
         OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "10"); // Hopefully nothing on Port 10
     testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
 
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(OpenOCRProcessor.RELATIONSHIP_RETRY.getName());
+  }
+
+  @Test
+  public void testEndpoints() {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withHeader("Content-Type", "plain/text; charset=utf-8")
+                .withBody("This is a test image"));
+
+    // Nothing should be listening on port 10, so it will be ejected after its first failure
+    testRunner.setProperty(
+        OpenOCRProcessor.PROPERTY_OPENOCR_ENDPOINTS.getName(), "localhost:10, localhost:1080");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_ENDPOINT_FAILURE_THRESHOLD.getName(), "1");
+    for (int i = 0; i < 4; i++) {
+      testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
+    }
+
+    testRunner.run(4);
+
+    List<MockFlowFile> success =
+        testRunner.getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS);
+    assertTrue(success.size() >= 3);
+    assertEquals(
+        4 - success.size(),
+        testRunner.getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_RETRY).size());
+    for (MockFlowFile f : success) {
+      f.assertAttributeEquals(OpenOCRProcessor.ATTRIBUTE_ENDPOINT, "localhost:1080");
+    }
+  }
+
+  @Test
+  public void testEndpointsValidation() {
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_ENDPOINTS.getName(), "localhost:abc");
+    testRunner.assertNotValid();
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_ENDPOINTS.getName(), "a:9292, b");
+    testRunner.assertValid();
+  }
+
+  @Test
+  public void testEngineArgsValidation() {
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_ENGINE_ARGS.getName(), "{\"lang\":");
+    testRunner.assertNotValid();
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_ENGINE_ARGS.getName(), "[\"lang\"]");
+    testRunner.assertNotValid();
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_ENGINE_ARGS.getName(), "${args}");
+    testRunner.assertValid();
+  }
+
+  @Test
+  public void testScaleImages() {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withHeader("Content-Type", "plain/text; charset=utf-8")
+                .withBody("This is a test image"));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_SCALE_IMAGES.getName(), "true");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_MAX_IMAGE_DIMENSION.getName(), "400");
+    testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
+
+    testRunner.run();
+
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS.getName(), 1);
+    MockFlowFile original =
+        testRunner
+            .getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS)
+            .get(0);
+    long originalSize =
+        Long.parseLong(original.getAttribute(OpenOCRProcessor.ATTRIBUTE_ORIGINAL_SIZE));
+    long sentSize = Long.parseLong(original.getAttribute(OpenOCRProcessor.ATTRIBUTE_SENT_SIZE));
+    assertEquals(original.getSize(), originalSize);
+    assertTrue(sentSize < originalSize);
+  }
+
+  @Test
+  public void testScaleImagesMultipart() throws IOException {
+    mockServer
+        .when(
+            request()
+                .withMethod("POST")
+                .withPath(OpenOCRProcessor.FILE_UPLOAD_PATH)
+                .withBody(subString("Content-Type: image/png")))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withHeader("Content-Type", "plain/text; charset=utf-8")
+                .withBody("This is a test image"));
+
+    // Re-encode the test image as a BMP, so the scaled image is in a different format
+    BufferedImage png = ImageIO.read(OpenOCRProcessorTest.class.getResource("ocr_test.png"));
+    BufferedImage rgb =
+        new BufferedImage(png.getWidth(), png.getHeight(), BufferedImage.TYPE_INT_RGB);
+    rgb.createGraphics().drawImage(png, 0, 0, null);
+    ByteArrayOutputStream bmp = new ByteArrayOutputStream();
+    assertTrue(ImageIO.write(rgb, "bmp", bmp));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(
+        OpenOCRProcessor.PROPERTY_REQUEST_MODE.getName(), OpenOCRProcessor.MULTIPART.getValue());
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_SCALE_IMAGES.getName(), "true");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_MAX_IMAGE_DIMENSION.getName(), "400");
+    testRunner.enqueue(bmp.toByteArray(), Map.of("mime.type", "image/bmp"));
+
+    testRunner.run();
+
+    mockServer.verify(request().withPath(OpenOCRProcessor.FILE_UPLOAD_PATH), exactly(1));
+    mockServer.verify(request().withBody(subString("Content-Type: image/bmp")), exactly(0));
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS.getName(), 1);
+  }
+
+  @Test
+  public void testSplitPages() throws IOException {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withHeader("Content-Type", "plain/text; charset=utf-8")
+                .withBody("Page text"));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_PREPROCESSORS.getName(), "convert-pdf");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_SPLIT_PAGES.getName(), "true");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_PAGE_CONCURRENCY.getName(), "2");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_PAGE_DPI.getName(), "72");
+    testRunner.enqueue(PageSplitterTest.createPdf(3));
+
+    testRunner.run();
+
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS.getName(), 1);
+    MockFlowFile extracted =
+        testRunner.getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_EXTRACTED).get(0);
+    extracted.assertContentEquals("Page text\fPage text\fPage text");
+    extracted.assertAttributeEquals(OpenOCRProcessor.ATTRIBUTE_PAGE_COUNT, "3");
+    extracted.assertAttributeEquals(OpenOCRProcessor.ATTRIBUTE_PAGE_OFFSETS, "0,10,20");
+
+    // Pages are sent as images, so don't need converting from PDF
+    mockServer.verify(request().withPath("/ocr"), exactly(3));
+    mockServer.verify(request().withBody(subString("convert-pdf")), exactly(0));
+    assertEquals(Long.valueOf(3), testRunner.getCounterValue(OpenOCRProcessor.COUNTER_REQUESTS));
+  }
+
+  @Test
+  public void testSplitPagesServerError() throws IOException {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(response().withStatusCode(503));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_SPLIT_PAGES.getName(), "true");
+    testRunner.enqueue(PageSplitterTest.createTiff(2));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(OpenOCRProcessor.RELATIONSHIP_RETRY.getName(), 1);
+  }
+
+  @Test
+  public void testSplitPagesClientError() throws IOException {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(response().withStatusCode(400));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_SPLIT_PAGES.getName(), "true");
+    testRunner.enqueue(PageSplitterTest.createTiff(2));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(
+        OpenOCRProcessor.RELATIONSHIP_ORIGINAL_FAILURE.getName(), 1);
+  }
+
+  @Test
+  public void testSplitPagesInvalidDocument() {
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_SPLIT_PAGES.getName(), "true");
+    testRunner.enqueue("%PDF-1.4 but not really a PDF".getBytes(StandardCharsets.UTF_8));
+
+    testRunner.run();
+
+    testRunner.assertAllFlowFilesTransferred(
+        OpenOCRProcessor.RELATIONSHIP_ORIGINAL_FAILURE.getName(), 1);
+    mockServer.verify(request().withPath("/ocr"), exactly(0));
+  }
+
+  @Test
+  public void testEmptyFlowFile() {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withHeader("Content-Type", "plain/text; charset=utf-8")
+                .withBody("This is a test image\n\n" + "Testing, testing... 1... 2...\n" + "3..."));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.enqueue(new byte[0]);
+
     try {
       testRunner.run();
     } catch (AssertionError e) {
@@ -170,17 +580,45 @@ public class OpenOCRProcessorTest {
   }
 
   @Test
-  public void testEmptyFlowFile() {
+  public void testImageUrl() {
     mockServer
-        .when(request().withMethod("POST").withPath("/ocr"))
+        .when(
+            request()
+                .withMethod("POST")
+                .withPath("/ocr")
+                .withBody(subString("\"img_url\":\"http://images.example.com/ocr_test.png\"")))
         .respond(
             response()
                 .withStatusCode(200)
                 .withHeader("Content-Type", "plain/text; charset=utf-8")
-                .withBody("This is a test image\n\n" + "Testing, testing... 1... 2...\n" + "3..."));
+                .withBody("This is a test image"));
 
     testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
-    testRunner.enqueue(new byte[0]);
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_IMAGE_URL.getName(), "${image.url}");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_SCALE_IMAGES.getName(), "true");
+    testRunner.enqueue(new byte[0], Map.of("image.url", "http://images.example.com/ocr_test.png"));
+
+    testRunner.run();
+
+    mockServer.verify(request().withPath("/ocr"), exactly(1));
+    mockServer.verify(request().withBody(subString("img_base64")), exactly(0));
+
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS.getName(), 1);
+    testRunner
+        .getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_EXTRACTED)
+        .get(0)
+        .assertContentEquals("This is a test image");
+    testRunner
+        .getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS)
+        .get(0)
+        .assertAttributeNotExists(OpenOCRProcessor.ATTRIBUTE_SENT_SIZE);
+  }
+
+  @Test
+  public void testInvalidImageUrl() {
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_IMAGE_URL.getName(), "${image.url}");
+    testRunner.enqueue(new byte[0], Map.of("image.url", "not a url"));
 
     try {
       testRunner.run();
@@ -191,6 +629,7 @@ public class OpenOCRProcessorTest {
 
     testRunner.assertAllFlowFilesTransferred(
         OpenOCRProcessor.RELATIONSHIP_ORIGINAL_FAILURE.getName());
+    mockServer.verify(request().withPath("/ocr"), exactly(0));
   }
 
   @Test
@@ -219,4 +658,172 @@ public class OpenOCRProcessorTest {
     testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_EXTRACTED.getName(), 1);
     testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_FAILURE.getName(), 0);
   }
+
+  @Test
+  public void testMultipleFlowFiles() {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withHeader("Content-Type", "plain/text; charset=utf-8")
+                .withBody("This is a test image\n\n" + "Testing, testing... 1... 2...\n" + "3..."));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_MAX_CONNECTIONS.getName(), "2");
+    testRunner.setThreadCount(2);
+    for (int i = 0; i < 5; i++) {
+      testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
+    }
+
+    testRunner.run(5);
+
+    mockServer.verify(request().withPath("/ocr"), exactly(5));
+
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS.getName(), 5);
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_EXTRACTED.getName(), 5);
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_FAILURE.getName(), 0);
+  }
+
+  @Test
+  public void testAsynchronous() throws InterruptedException {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withHeader("Content-Type", "plain/text; charset=utf-8")
+                .withBody("This is a test image\n\n" + "Testing, testing... 1... 2...\n" + "3..."));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(
+        OpenOCRProcessor.PROPERTY_EXECUTION_MODE.getName(),
+        OpenOCRProcessor.ASYNCHRONOUS.getValue());
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_MAX_IN_FLIGHT.getName(), "2");
+    for (int i = 0; i < 5; i++) {
+      testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
+    }
+
+    // Keep triggering the processor until all responses have been received
+    testRunner.run(1, false, true);
+    for (int i = 0;
+        i < 100
+            && testRunner
+                    .getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS)
+                    .size()
+                < 5;
+        i++) {
+      Thread.sleep(50);
+      testRunner.run(1, false, false);
+    }
+    testRunner.run(1, true, false);
+
+    mockServer.verify(request().withPath("/ocr"), exactly(5));
+
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS.getName(), 5);
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_EXTRACTED.getName(), 5);
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_FAILURE.getName(), 0);
+  }
+
+  @Test
+  public void testAsynchronousInternalServerError() throws InterruptedException {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(response().withStatusCode(500));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(
+        OpenOCRProcessor.PROPERTY_EXECUTION_MODE.getName(),
+        OpenOCRProcessor.ASYNCHRONOUS.getValue());
+    testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
+
+    testRunner.run(1, false, true);
+    for (int i = 0;
+        i < 100
+            && testRunner
+                .getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_RETRY)
+                .isEmpty();
+        i++) {
+      Thread.sleep(50);
+      testRunner.run(1, false, false);
+    }
+    testRunner.run(1, true, false);
+
+    testRunner.assertAllFlowFilesTransferred(OpenOCRProcessor.RELATIONSHIP_RETRY.getName(), 1);
+  }
+
+  @Test
+  public void testCache() throws IOException {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withHeader("Content-Type", "plain/text; charset=utf-8")
+                .withBody("This is a test image\n\n" + "Testing, testing... 1... 2...\n" + "3..."));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(
+        OpenOCRProcessor.PROPERTY_CACHE_DIRECTORY.getName(),
+        folder.newFolder().getAbsolutePath());
+    testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
+    testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
+
+    testRunner.run(2);
+
+    mockServer.verify(request().withPath("/ocr"), exactly(1));
+
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_SUCCESS.getName(), 2);
+    testRunner.assertTransferCount(OpenOCRProcessor.RELATIONSHIP_ORIGINAL_FAILURE.getName(), 0);
+
+    List<MockFlowFile> extracted =
+        testRunner.getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_EXTRACTED);
+    assertEquals(2, extracted.size());
+    extracted.get(0).assertAttributeEquals(OpenOCRProcessor.ATTRIBUTE_CACHE_HIT, "false");
+    extracted.get(1).assertAttributeEquals(OpenOCRProcessor.ATTRIBUTE_CACHE_HIT, "true");
+    extracted.get(1).assertContentEquals(extracted.get(0).toByteArray());
+  }
+
+  @Test
+  public void testCacheScaling() throws IOException {
+    mockServer
+        .when(request().withMethod("POST").withPath("/ocr"))
+        .respond(
+            response()
+                .withStatusCode(200)
+                .withHeader("Content-Type", "plain/text; charset=utf-8")
+                .withBody("This is a test image"));
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_OPENOCR_PORT.getName(), "1080");
+    testRunner.setProperty(
+        OpenOCRProcessor.PROPERTY_CACHE_DIRECTORY.getName(),
+        folder.newFolder().getAbsolutePath());
+    testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
+    testRunner.run();
+
+    // The server sees a different image once it is scaled, so the cached text can't be used
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_SCALE_IMAGES.getName(), "true");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_MAX_IMAGE_DIMENSION.getName(), "100");
+    testRunner.enqueue(OpenOCRProcessorTest.class.getResourceAsStream("ocr_test.png"));
+    testRunner.run();
+
+    mockServer.verify(request().withPath("/ocr"), exactly(2));
+
+    testRunner
+        .getFlowFilesForRelationship(OpenOCRProcessor.RELATIONSHIP_EXTRACTED)
+        .forEach(ff -> ff.assertAttributeEquals(OpenOCRProcessor.ATTRIBUTE_CACHE_HIT, "false"));
+  }
+
+  @Test
+  public void testConnectionProperties() {
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_MAX_CONNECTIONS.getName(), "0");
+    testRunner.assertNotValid();
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_MAX_CONNECTIONS.getName(), "10");
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_SOCKET_TIMEOUT.getName(), "Forever");
+    testRunner.assertNotValid();
+
+    testRunner.setProperty(OpenOCRProcessor.PROPERTY_SOCKET_TIMEOUT.getName(), "2 mins");
+    testRunner.assertValid();
+  }
 }
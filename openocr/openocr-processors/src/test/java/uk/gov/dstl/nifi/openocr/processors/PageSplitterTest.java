@@ -0,0 +1,109 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.Test;
+
+public class PageSplitterTest {
+
+  /** Creates a PDF with the given number of blank pages */
+  public static byte[] createPdf(int pages) throws IOException {
+    try (PDDocument document = new PDDocument()) {
+      for (int i = 0; i < pages; i++) {
+        document.addPage(new PDPage());
+      }
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      document.save(baos);
+      return baos.toByteArray();
+    }
+  }
+
+  /** Creates a TIFF with the given number of blank images */
+  public static byte[] createTiff(int pages) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (ImageOutputStream output = ImageIO.createImageOutputStream(baos)) {
+      writer.setOutput(output);
+      writer.prepareWriteSequence(null);
+      for (int i = 0; i < pages; i++) {
+        BufferedImage image = new BufferedImage(40, 20, BufferedImage.TYPE_BYTE_GRAY);
+        writer.writeToSequence(new IIOImage(image, null, null), null);
+      }
+      writer.endWriteSequence();
+    } finally {
+      writer.dispose();
+    }
+
+    return baos.toByteArray();
+  }
+
+  @Test
+  public void testDetect() throws IOException {
+    assertEquals(PageSplitter.Format.PDF, PageSplitter.detect(header(createPdf(1))));
+    assertEquals(PageSplitter.Format.TIFF, PageSplitter.detect(header(createTiff(1))));
+    assertNull(
+        PageSplitter.detect(
+            header(PageSplitterTest.class.getResourceAsStream("ocr_test.png").readAllBytes())));
+    assertNull(PageSplitter.detect(new byte[] {'%', 'P'}));
+  }
+
+  @Test
+  public void testPdf() throws IOException {
+    try (PageSplitter splitter =
+        PageSplitter.open(PageSplitter.Format.PDF, new ByteArrayInputStream(createPdf(3)), 72)) {
+      assertEquals(3, splitter.getPageCount());
+      assertPng(splitter.renderPage(2));
+    }
+  }
+
+  @Test
+  public void testTiff() throws IOException {
+    try (PageSplitter splitter =
+        PageSplitter.open(PageSplitter.Format.TIFF, new ByteArrayInputStream(createTiff(2)), 72)) {
+      assertEquals(2, splitter.getPageCount());
+      assertPng(splitter.renderPage(0));
+      assertPng(splitter.renderPage(1));
+    }
+  }
+
+  private static byte[] header(byte[] content) {
+    return Arrays.copyOf(content, PageSplitter.HEADER_LENGTH);
+  }
+
+  private static void assertPng(byte[] image) throws IOException {
+    BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(image));
+    assertNotNull(decoded);
+  }
+}
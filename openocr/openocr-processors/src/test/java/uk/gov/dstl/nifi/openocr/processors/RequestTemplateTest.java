@@ -0,0 +1,86 @@
+package uk.gov.dstl.nifi.openocr.processors;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import uk.gov.dstl.openocr.OpenOCRRequestBase64;
+
+public class RequestTemplateTest {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  @Test
+  public void testCompile() throws IOException {
+    RequestTemplate template =
+        RequestTemplate.compile(List.of("stroke-width-transform"), "{\"lang\":\"fr\"}");
+
+    assertEquals(List.of("stroke-width-transform"), template.getPreprocessors());
+    assertEquals(Map.of("lang", "fr"), template.getEngineArgs());
+
+    OpenOCRRequestBase64 request = new OpenOCRRequestBase64();
+    template.apply(request);
+    assertEquals(template.getPreprocessors(), request.getPreprocessors());
+    assertEquals(template.getEngineArgs(), request.getEngineArgs());
+
+    assertEquals(
+        OBJECT_MAPPER.readTree(OBJECT_MAPPER.writeValueAsString(request)),
+        OBJECT_MAPPER.readTree(template.getEnvelope()));
+  }
+
+  @Test
+  public void testCompileWithoutArguments() throws IOException {
+    RequestTemplate template = RequestTemplate.compile(List.of(), null);
+
+    assertTrue(template.getEngineArgs().isEmpty());
+    assertEquals(
+        "tesseract", OBJECT_MAPPER.readTree(template.getEnvelope()).get("engine").asText());
+  }
+
+  @Test
+  public void testImmutable() throws IOException {
+    RequestTemplate template = RequestTemplate.compile(List.of(), "{\"lang\":\"fr\"}");
+
+    try {
+      template.getEngineArgs().put("lang", "de");
+      fail("Engine arguments should be immutable");
+    } catch (UnsupportedOperationException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testParseEngineArgsInvalid() {
+    for (String invalid : List.of("not json", "[\"lang\"]", "null")) {
+      try {
+        RequestTemplate.parseEngineArgs(invalid);
+        fail("Expected " + invalid + " to be invalid");
+      } catch (IOException e) {
+        // Expected
+      }
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package uk.gov.dstl.openocr;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class OpenOCRRequestBase64EntityTest {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  @Test
+  public void testWriteTo() throws IOException {
+    OpenOCRRequestBase64 request = new OpenOCRRequestBase64();
+    request.setPreprocessors(List.of("stroke-width-transform"));
+    request.setEngineArgs(Map.of("lang", "fr"));
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (InputStream is = IOUtils.toInputStream("Hello", StandardCharsets.UTF_8)) {
+      OpenOCRRequestBase64Entity entity = new OpenOCRRequestBase64Entity(request, is);
+
+      assertFalse(entity.isRepeatable());
+      assertTrue(entity.isChunked());
+      assertEquals("application/json; charset=UTF-8", entity.getContentType().getValue());
+
+      entity.writeTo(baos);
+    }
+
+    request.setContent("SGVsbG8=");
+    assertEquals(
+        OBJECT_MAPPER.readTree(OBJECT_MAPPER.writeValueAsString(request)),
+        OBJECT_MAPPER.readTree(baos.toByteArray()));
+  }
+
+  @Test
+  public void testWriteToEnvelope() throws IOException {
+    OpenOCRRequestBase64 request = new OpenOCRRequestBase64();
+    request.setEngineArgs(Map.of("lang", "fr"));
+    byte[] envelope = OpenOCRRequestBase64Entity.envelope(request);
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    OpenOCRRequestBase64Entity entity =
+        new OpenOCRRequestBase64Entity(
+            envelope, IOUtils.toInputStream("Hello", StandardCharsets.UTF_8));
+    entity.writeTo(baos);
+
+    request.setContent("SGVsbG8=");
+    assertEquals(
+        OBJECT_MAPPER.readTree(OBJECT_MAPPER.writeValueAsString(request)),
+        OBJECT_MAPPER.readTree(baos.toByteArray()));
+    assertEquals(baos.size(), entity.getBytesWritten());
+  }
+
+  @Test
+  public void testWriteToEmptyEnvelope() throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    new OpenOCRRequestBase64Entity(
+            "{}".getBytes(StandardCharsets.UTF_8),
+            IOUtils.toInputStream("Hello", StandardCharsets.UTF_8))
+        .writeTo(baos);
+
+    assertEquals("{\"img_base64\":\"SGVsbG8=\"}", baos.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testWriteToLargeContent() throws IOException {
+    byte[] content = new byte[1024 * 1024 + 1];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) i;
+    }
+
+    OpenOCRRequestBase64 request = new OpenOCRRequestBase64();
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    new OpenOCRRequestBase64Entity(request, new ByteArrayInputStream(content)).writeTo(baos);
+
+    assertArrayEquals(
+        content,
+        OBJECT_MAPPER
+            .readTree(baos.toByteArray())
+            .get(OpenOCRRequestBase64.CONTENT_PROPERTY)
+            .binaryValue());
+  }
+
+  @Test
+  public void testGetContent() throws IOException {
+    OpenOCRRequestBase64 request = new OpenOCRRequestBase64();
+    request.setEngineArgs(Map.of("lang", "fr"));
+    OpenOCRRequestBase64Entity entity =
+        new OpenOCRRequestBase64Entity(
+            request, IOUtils.toInputStream("Hello", StandardCharsets.UTF_8));
+
+    byte[] content;
+    try (InputStream is = entity.getContent()) {
+      content = IOUtils.toByteArray(is);
+    }
+
+    request.setContent("SGVsbG8=");
+    assertEquals(
+        OBJECT_MAPPER.readTree(OBJECT_MAPPER.writeValueAsString(request)),
+        OBJECT_MAPPER.readTree(content));
+  }
+}
@@ -0,0 +1,124 @@
+package uk.gov.dstl.openocr;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class OpenOCRRequestMultipartEntityTest {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  @Test
+  public void testWriteTo() throws IOException {
+    byte[] content = new byte[64 * 1024];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) i;
+    }
+
+    OpenOCRRequestMultipart request = new OpenOCRRequestMultipart();
+    request.setPreprocessors(List.of("stroke-width-transform"));
+    request.setEngineArgs(Map.of("lang", "fr"));
+    request.setContentType("image/png");
+    request.setContent(new ByteArrayInputStream(content));
+
+    OpenOCRRequestMultipartEntity entity = new OpenOCRRequestMultipartEntity(request);
+
+    assertFalse(entity.isRepeatable());
+    assertTrue(entity.isChunked());
+
+    String contentType = entity.getContentType().getValue();
+    assertTrue(contentType.startsWith("multipart/related; boundary="));
+    String boundary = contentType.substring(contentType.indexOf('=') + 1);
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    entity.writeTo(baos);
+    byte[] body = baos.toByteArray();
+    assertEquals(body.length, entity.getBytesWritten());
+
+    // Image bytes aren't valid text, so decode as ISO-8859-1 to keep a byte per char
+    String s = new String(body, StandardCharsets.ISO_8859_1);
+
+    String jsonHeader = "--" + boundary + "\r\nContent-Type: application/json\r\n\r\n";
+    String imageHeader = "\r\n--" + boundary + "\r\nContent-Type: image/png\r\n\r\n";
+    String closing = "\r\n--" + boundary + "--\r\n";
+
+    assertTrue(s.startsWith(jsonHeader));
+    assertTrue(s.endsWith(closing));
+
+    int imageStart = s.indexOf(imageHeader);
+    assertTrue(imageStart > 0);
+
+    String json = s.substring(jsonHeader.length(), imageStart);
+    assertEquals(
+        OBJECT_MAPPER.readTree(OBJECT_MAPPER.writeValueAsString(request)),
+        OBJECT_MAPPER.readTree(json));
+    assertFalse(json.contains("content"));
+
+    assertArrayEquals(
+        content,
+        Arrays.copyOfRange(
+            body, imageStart + imageHeader.length(), body.length - closing.length()));
+  }
+
+  @Test
+  public void testDefaultContentType() throws IOException {
+    OpenOCRRequestMultipart request = new OpenOCRRequestMultipart();
+    request.setContent(new ByteArrayInputStream("Hello".getBytes(StandardCharsets.UTF_8)));
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    new OpenOCRRequestMultipartEntity(request).writeTo(baos);
+
+    assertTrue(
+        baos.toString(StandardCharsets.UTF_8)
+            .contains(
+                "Content-Type: " + OpenOCRRequestMultipart.DEFAULT_CONTENT_TYPE + "\r\n\r\nHello"));
+  }
+
+  @Test
+  public void testGetContent() throws IOException {
+    OpenOCRRequestMultipart request = new OpenOCRRequestMultipart();
+    request.setContentType("image/png");
+    request.setContent(new ByteArrayInputStream("Hello".getBytes(StandardCharsets.UTF_8)));
+
+    OpenOCRRequestMultipartEntity entity = new OpenOCRRequestMultipartEntity(request);
+    String contentType = entity.getContentType().getValue();
+    String boundary = contentType.substring(contentType.indexOf('=') + 1);
+
+    String body;
+    try (InputStream is = entity.getContent()) {
+      body = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    assertTrue(body.contains("Content-Type: image/png\r\n\r\nHello"));
+    assertTrue(body.endsWith("\r\n--" + boundary + "--\r\n"));
+  }
+}
@@ -0,0 +1,62 @@
+package uk.gov.dstl.openocr;
+
+/*-
+ * #%L
+ * OpenOCR Processors
+ * %%
+ * Copyright (C) 2019 Dstl
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.junit.Assert.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import org.junit.Test;
+
+public class OpenOCRRequestUrlTest {
+
+  @Test
+  public void testGetterSetter() {
+    OpenOCRRequestUrl o = new OpenOCRRequestUrl();
+
+    assertNull(o.getUrl());
+    o.setUrl("http://localhost/test.png");
+    assertEquals("http://localhost/test.png", o.getUrl());
+  }
+
+  @Test
+  public void testIsEmpty() {
+    OpenOCRRequestUrl o = new OpenOCRRequestUrl();
+
+    assertTrue(o.isEmpty());
+
+    o.setUrl("http://localhost/test.png");
+    assertFalse(o.isEmpty());
+  }
+
+  @Test
+  public void testSerialize() throws IOException {
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    OpenOCRRequestUrl o = new OpenOCRRequestUrl();
+    o.setUrl("http://localhost/test.png");
+
+    JsonNode json = objectMapper.readTree(objectMapper.writeValueAsString(o));
+    assertEquals("http://localhost/test.png", json.get(OpenOCRRequestUrl.URL_PROPERTY).asText());
+    assertFalse(json.has("empty"));
+  }
+}